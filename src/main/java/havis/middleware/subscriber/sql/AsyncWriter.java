@@ -0,0 +1,179 @@
+package havis.middleware.subscriber.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded write-behind queue with a dedicated writer thread which passes the
+ * queued reports to the handler
+ */
+class AsyncWriter implements Runnable {
+
+	private final static Logger log = Logger.getLogger(AsyncWriter.class.getName());
+
+	private final static long POLL_TIMEOUT = 100;
+	private final static long STOP_MILLIS = 10000;
+
+	/**
+	 * Behavior of {@link AsyncWriter#put(Object)} if the queue is full
+	 */
+	enum Policy {
+		/**
+		 * Wait until the writer thread took a report from the queue
+		 */
+		BLOCK,
+		/**
+		 * Discard the report to put
+		 */
+		DROP_NEWEST,
+		/**
+		 * Discard the oldest report in the queue
+		 */
+		DROP_OLDEST;
+
+		static Policy parse(String value) {
+			switch (value) {
+			case "block":
+				return BLOCK;
+			case "dropNewest":
+				return DROP_NEWEST;
+			case "dropOldest":
+				return DROP_OLDEST;
+			}
+			return null;
+		}
+	}
+
+	interface Handler {
+		void handle(Object report) throws Exception;
+	}
+
+	private final BlockingQueue<Object> queue;
+	private final Policy policy;
+	private final Handler handler;
+	private final Thread thread;
+	private volatile boolean running, aborted;
+
+	private final AtomicLong dropped = new AtomicLong(), failed = new AtomicLong();
+
+	AsyncWriter(String name, int capacity, Policy policy, Handler handler) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.policy = policy;
+		this.handler = handler;
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		running = true;
+		thread.start();
+	}
+
+	/**
+	 * Puts the report to the queue, applying the policy if the queue is full
+	 * 
+	 * @throws IllegalStateException
+	 *             if the writer is stopped
+	 */
+	void put(Object report) throws InterruptedException {
+		if (!running)
+			throw new IllegalStateException("Writer is stopped");
+		switch (policy) {
+		case BLOCK:
+			while (!queue.offer(report, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				if (!running)
+					throw new IllegalStateException("Writer is stopped");
+			}
+			break;
+		case DROP_NEWEST:
+			if (!queue.offer(report))
+				dropped.incrementAndGet();
+			break;
+		case DROP_OLDEST:
+			while (!queue.offer(report)) {
+				if (queue.poll() != null)
+					dropped.incrementAndGet();
+			}
+			break;
+		}
+		// writer stopped meanwhile, take back the report unless already taken
+		if (!running && queue.remove(report))
+			throw new IllegalStateException("Writer is stopped");
+	}
+
+	/**
+	 * Stops the writer thread after all queued reports are handled. If the
+	 * writer thread does not finish in time, it is interrupted and the reports
+	 * left in the queue are discarded.
+	 */
+	void stop() throws InterruptedException {
+		stop(STOP_MILLIS);
+	}
+
+	/**
+	 * Stops the writer thread, waiting at most the timeout in milliseconds
+	 * before and after interrupting it
+	 */
+	void stop(long timeout) throws InterruptedException {
+		running = false;
+		thread.join(timeout);
+		if (thread.isAlive()) {
+			log.log(Level.WARNING, "Writer thread did not finish within {0,number,#}ms, interrupting", Long.valueOf(timeout));
+			aborted = true;
+			thread.interrupt();
+			thread.join(timeout);
+		}
+		List<Object> left = new ArrayList<>();
+		queue.drainTo(left);
+		if (left.size() > 0) {
+			dropped.addAndGet(left.size());
+			log.log(Level.WARNING, "Discarded {0} reports left in the queue", Integer.valueOf(left.size()));
+		}
+	}
+
+	/**
+	 * @return the number of reports discarded due to a full queue
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of reports the handler failed to write
+	 */
+	long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the number of reports waiting in the queue
+	 */
+	int size() {
+		return queue.size();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!aborted && (running || !queue.isEmpty())) {
+				Object report = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				if (report != null) {
+					try {
+						handler.handle(report);
+					} catch (Exception e) {
+						failed.incrementAndGet();
+						log.log(Level.WARNING, "Failed to write report", e);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			log.log(Level.FINE, "Writer thread interrupted with {0} reports queued", Integer.valueOf(queue.size()));
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package havis.middleware.subscriber.sql;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Locale;
+
+/**
+ * Binds the value of a configured column of the current row
+ */
+abstract class Binder {
+
+	/**
+	 * Levels of the values, a value is bound whenever the report, group or row
+	 * of its level changes
+	 */
+	final static int REPORTS = 0, REPORT = 1, GROUP = 2, ROW = 3, LEVELS = 4;
+
+	/**
+	 * the parameter index of the column
+	 */
+	final int index;
+
+	/**
+	 * the level of the value
+	 */
+	final int level;
+
+	Binder(int index, int level) {
+		this.index = index;
+		this.level = level;
+	}
+
+	/**
+	 * @return the value of the column
+	 */
+	abstract Object value(Row row);
+
+	/**
+	 * Sets the parameter of the insert statement
+	 */
+	abstract void bind(PreparedStatement stmt, Row row) throws SQLException;
+
+	/**
+	 * Copies the value into the values of the row passed to a loader
+	 */
+	void copy(Object[] values, Row row) {
+		values[index - 1] = value(row);
+	}
+
+	/**
+	 * Binds a text column
+	 */
+	abstract static class Text extends Binder {
+
+		Text(int index, int level) {
+			super(index, level);
+		}
+
+		@Override
+		abstract String value(Row row);
+
+		@Override
+		void bind(PreparedStatement stmt, Row row) throws SQLException {
+			stmt.setString(index, value(row));
+		}
+	}
+
+	/**
+	 * Converts the value of a binder to the type of a column with overridden
+	 * type and binds it with the setter of the type
+	 */
+	static class Typed extends Binder {
+
+		private final Binder binder;
+		private final int type;
+
+		Typed(Binder binder, int type) {
+			super(binder.index, binder.level);
+			this.binder = binder;
+			this.type = type;
+		}
+
+		@Override
+		Object value(Row row) {
+			return convert(binder.value(row), type);
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, Row row) throws SQLException {
+			Object value = value(row);
+			if (value == null) {
+				stmt.setNull(index, type);
+				return;
+			}
+			switch (type) {
+			case Types.SMALLINT:
+			case Types.INTEGER:
+				stmt.setInt(index, ((Integer) value).intValue());
+				break;
+			case Types.BIGINT:
+				stmt.setLong(index, ((Long) value).longValue());
+				break;
+			case Types.DOUBLE:
+				stmt.setDouble(index, ((Double) value).doubleValue());
+				break;
+			case Types.DECIMAL:
+				stmt.setBigDecimal(index, (BigDecimal) value);
+				break;
+			case Types.BOOLEAN:
+				stmt.setBoolean(index, ((Boolean) value).booleanValue());
+				break;
+			case Types.TIMESTAMP:
+				stmt.setTimestamp(index, (Timestamp) value);
+				break;
+			case Types.DATE:
+				stmt.setDate(index, (Date) value);
+				break;
+			case Types.TIME:
+				stmt.setTime(index, (Time) value);
+				break;
+			case Types.VARBINARY:
+				stmt.setBytes(index, (byte[]) value);
+				break;
+			default:
+				stmt.setString(index, (String) value);
+			}
+		}
+	}
+
+	/**
+	 * Binds a raw URN as bytes prefixed by its bit length
+	 */
+	static class Raw extends Binder {
+
+		private final Binder binder;
+
+		Raw(Binder binder) {
+			super(binder.index, binder.level);
+			this.binder = binder;
+		}
+
+		@Override
+		Object value(Row row) {
+			Object value = binder.value(row);
+			return value == null || value instanceof byte[] ? value : Hex.raw(value.toString());
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, Row row) throws SQLException {
+			Object value = value(row);
+			if (value == null)
+				stmt.setNull(index, Types.VARBINARY);
+			else
+				stmt.setBytes(index, (byte[]) value);
+		}
+	}
+
+	/**
+	 * @return the JDBC type of a SQL column type
+	 */
+	static int type(String type) {
+		int end = 0;
+		while (end < type.length() && Character.isLetterOrDigit(type.charAt(end)))
+			end++;
+		switch (type.substring(0, end).toUpperCase(Locale.ENGLISH)) {
+		case "TINYINT":
+		case "SMALLINT":
+			return Types.SMALLINT;
+		case "INT":
+		case "INTEGER":
+		case "MEDIUMINT":
+			return Types.INTEGER;
+		case "BIGINT":
+		case "LONG":
+			return Types.BIGINT;
+		case "REAL":
+		case "FLOAT":
+		case "DOUBLE":
+			return Types.DOUBLE;
+		case "DECIMAL":
+		case "NUMERIC":
+		case "NUMBER":
+			return Types.DECIMAL;
+		case "BOOL":
+		case "BOOLEAN":
+		case "BIT":
+			return Types.BOOLEAN;
+		case "TIMESTAMP":
+		case "DATETIME":
+		case "DATETIME2":
+			return Types.TIMESTAMP;
+		case "DATE":
+			return Types.DATE;
+		case "TIME":
+			return Types.TIME;
+		case "BINARY":
+		case "VARBINARY":
+		case "BYTEA":
+		case "BLOB":
+			return Types.VARBINARY;
+		default:
+			return Types.VARCHAR;
+		}
+	}
+
+	/**
+	 * Converts the value to the Java type of the JDBC type
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value can't be converted
+	 */
+	static Object convert(Object value, int type) {
+		if (value == null)
+			return null;
+		switch (type) {
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return value instanceof Number ? Integer.valueOf(((Number) value).intValue()) : Integer.valueOf(value.toString().trim());
+		case Types.BIGINT:
+			return value instanceof Number ? Long.valueOf(((Number) value).longValue()) : Long.valueOf(value.toString().trim());
+		case Types.DOUBLE:
+			return value instanceof Number ? Double.valueOf(((Number) value).doubleValue()) : Double.valueOf(value.toString().trim());
+		case Types.DECIMAL:
+			return new BigDecimal(value.toString().trim());
+		case Types.BOOLEAN:
+			return value instanceof Boolean ? value : Boolean.valueOf(value.toString().trim());
+		case Types.TIMESTAMP:
+			if (value instanceof Timestamp)
+				return value;
+			if (value instanceof java.util.Date)
+				return new Timestamp(((java.util.Date) value).getTime());
+			if (value instanceof Number)
+				return new Timestamp(((Number) value).longValue());
+			return Timestamp.valueOf(value.toString().trim());
+		case Types.DATE:
+			if (value instanceof java.util.Date)
+				return new Date(((java.util.Date) value).getTime());
+			return Date.valueOf(value.toString().trim());
+		case Types.TIME:
+			if (value instanceof java.util.Date)
+				return new Time(((java.util.Date) value).getTime());
+			return Time.valueOf(value.toString().trim());
+		case Types.VARBINARY:
+			return value instanceof byte[] ? value : Hex.decode(value.toString());
+		default:
+			return value.toString();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package havis.middleware.subscriber.sql;
+
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+
+/**
+ * Collects rows in an in-memory row set and writes them to a SQL Server table
+ * using bulk copy. This class depends on the SQL Server driver, it must only be
+ * loaded for SQL Server connections.
+ */
+class BulkLoader implements Loader {
+
+	private final static Logger log = Logger.getLogger(BulkLoader.class.getName());
+
+	final static String BULK_COPY = "com.microsoft.sqlserver.jdbc.SQLServerBulkCopy";
+
+	private final String table;
+	private final List<String> columns;
+	private final int[] types;
+	private final RowSetFactory factory;
+
+	private Connection connection;
+	private CachedRowSet rowSet;
+	private long count;
+
+	/**
+	 * @param table
+	 *            the quoted table name
+	 * @param columns
+	 *            the column names
+	 * @param types
+	 *            the SQL types of the columns
+	 */
+	BulkLoader(String table, List<String> columns, int[] types) throws SQLException {
+		this.table = table;
+		this.columns = columns;
+		this.types = types;
+		this.factory = RowSetProvider.newFactory();
+	}
+
+	@Override
+	public void begin(Connection connection) throws SQLException {
+		RowSetMetaDataImpl data = new RowSetMetaDataImpl();
+		data.setColumnCount(types.length);
+		for (int i = 0; i < types.length; i++) {
+			data.setColumnName(i + 1, columns.get(i));
+			data.setColumnType(i + 1, types[i]);
+			data.setNullable(i + 1, ResultSetMetaData.columnNullable);
+		}
+		this.connection = connection;
+		this.count = 0;
+		rowSet = factory.createCachedRowSet();
+		rowSet.setMetaData(data);
+		rowSet.moveToInsertRow();
+	}
+
+	@Override
+	public void add(Object[] row) throws SQLException {
+		for (int i = 0; i < row.length; i++) {
+			Object value = row[i];
+			if (value != null && value.getClass() == Date.class)
+				value = new Timestamp(((Date) value).getTime());
+			rowSet.updateObject(i + 1, value);
+		}
+		rowSet.insertRow();
+		rowSet.moveToInsertRow();
+		count++;
+	}
+
+	@Override
+	public long end() throws SQLException {
+		try {
+			rowSet.moveToCurrentRow();
+			rowSet.beforeFirst();
+			if (count > 0) {
+				try (SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(connection)) {
+					bulkCopy.setDestinationTableName(table);
+					for (int i = 0; i < types.length; i++)
+						bulkCopy.addColumnMapping(i + 1, columns.get(i));
+					bulkCopy.writeToServer(rowSet);
+				}
+			}
+			return count;
+		} finally {
+			cancel();
+		}
+	}
+
+	@Override
+	public void cancel() {
+		if (rowSet != null) {
+			try {
+				rowSet.close();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Failed to close row set", e);
+			}
+			rowSet = null;
+		}
+		connection = null;
+	}
+}
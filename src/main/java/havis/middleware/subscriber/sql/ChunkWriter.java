@@ -0,0 +1,120 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects characters in fixed size chunks, which are read back with
+ * {@link #reader()}. Unlike a {@link java.io.StringWriter} the content is
+ * never copied to grow the buffer or to create a string, and the chunks are
+ * reused after {@link #reset()}. This class is not thread safe.
+ */
+class ChunkWriter extends Writer {
+
+	private final static int CHUNK_SIZE = 64 * 1024;
+	/**
+	 * number of chunks kept for reuse on reset
+	 */
+	private final static int RETAINED_CHUNKS = 16;
+
+	private final List<char[]> chunks = new ArrayList<>();
+	private int length;
+
+	/**
+	 * @return the number of characters written
+	 */
+	int length() {
+		return length;
+	}
+
+	/**
+	 * Discards the content, surplus chunks are released
+	 */
+	void reset() {
+		length = 0;
+		while (chunks.size() > RETAINED_CHUNKS)
+			chunks.remove(chunks.size() - 1);
+	}
+
+	@Override
+	public void write(int c) {
+		int offset = length % CHUNK_SIZE;
+		chunk()[offset] = (char) c;
+		length++;
+	}
+
+	@Override
+	public void write(char[] buffer, int offset, int count) {
+		while (count > 0) {
+			int position = length % CHUNK_SIZE;
+			int n = Math.min(count, CHUNK_SIZE - position);
+			System.arraycopy(buffer, offset, chunk(), position, n);
+			length += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	@Override
+	public void write(String string, int offset, int count) {
+		while (count > 0) {
+			int position = length % CHUNK_SIZE;
+			int n = Math.min(count, CHUNK_SIZE - position);
+			string.getChars(offset, offset + n, chunk(), position);
+			length += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * @return a reader of the characters written so far
+	 */
+	Reader reader() {
+		return new Reader() {
+			private int position;
+
+			@Override
+			public int read(char[] buffer, int offset, int count) {
+				if (position >= length)
+					return -1;
+				int n = Math.min(Math.min(count, length - position), CHUNK_SIZE - position % CHUNK_SIZE);
+				System.arraycopy(chunks.get(position / CHUNK_SIZE), position % CHUNK_SIZE, buffer, offset, n);
+				position += n;
+				return n;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i * CHUNK_SIZE < length; i++)
+			builder.append(chunks.get(i), 0, Math.min(CHUNK_SIZE, length - i * CHUNK_SIZE));
+		return builder.toString();
+	}
+
+	/**
+	 * @return the chunk of the current length, added if necessary
+	 */
+	private char[] chunk() {
+		int index = length / CHUNK_SIZE;
+		if (index == chunks.size())
+			chunks.add(new char[CHUNK_SIZE]);
+		return chunks.get(index);
+	}
+}
@@ -0,0 +1,107 @@
+package havis.middleware.subscriber.sql;
+
+/**
+ * Fails fast while the database is unavailable. Each failure rejects the
+ * attempts for the backoff time, which doubles with each failure up to the
+ * maximum and is reset by a success. The breaker opens after a number of
+ * consecutive failures, then only a single trial attempt is let through after
+ * the backoff time.
+ */
+class CircuitBreaker {
+
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int threshold;
+	private final long minMillis, maxMillis;
+	private State state = State.CLOSED;
+	private int failures;
+	private long backoff, until;
+
+	/**
+	 * @param threshold
+	 *            the number of consecutive failures opening the breaker, 0
+	 *            disables the breaker and the backoff
+	 * @param minMillis
+	 *            the initial backoff time
+	 * @param maxMillis
+	 *            the maximum backoff time
+	 */
+	CircuitBreaker(int threshold, long minMillis, long maxMillis) {
+		this.threshold = threshold;
+		this.minMillis = minMillis;
+		this.maxMillis = Math.max(minMillis, maxMillis);
+		this.backoff = minMillis;
+	}
+
+	/**
+	 * @return true if an attempt is allowed at the time. An open breaker
+	 *         allows the first attempt after the backoff time as trial, the
+	 *         trial must be followed by {@link #success()},
+	 *         {@link #failure(long)} or {@link #abort()}.
+	 */
+	synchronized boolean allow(long now) {
+		switch (state) {
+		case CLOSED:
+			return now >= until;
+		case OPEN:
+			if (now >= until) {
+				state = State.HALF_OPEN;
+				return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Closes the breaker and resets the backoff time
+	 */
+	synchronized void success() {
+		state = State.CLOSED;
+		failures = 0;
+		backoff = minMillis;
+		until = 0;
+	}
+
+	/**
+	 * Ends an attempt which failed before the database was involved, a trial
+	 * is let through again
+	 */
+	synchronized void abort() {
+		if (state == State.HALF_OPEN)
+			state = State.OPEN;
+	}
+
+	/**
+	 * Counts a failed attempt at the time and starts the backoff time
+	 *
+	 * @return true if the breaker opened
+	 */
+	synchronized boolean failure(long now) {
+		if (threshold == 0)
+			return false;
+		failures++;
+		until = now + backoff;
+		backoff = Math.min(backoff * 2, maxMillis);
+		if (state == State.HALF_OPEN || failures >= threshold) {
+			state = State.OPEN;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the time until the next attempt is allowed, 0 if it is allowed
+	 *         now or a trial is running
+	 */
+	synchronized long remaining(long now) {
+		return state != State.HALF_OPEN ? Math.max(0, until - now) : 0;
+	}
+
+	synchronized State getState() {
+		return state;
+	}
+}
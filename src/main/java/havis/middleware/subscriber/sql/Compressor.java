@@ -0,0 +1,141 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses text as UTF-8 in gzip or zlib format into a reused buffer. The
+ * deflater is reused for all documents. This class is not thread safe.
+ */
+class Compressor {
+
+	enum Format {
+		GZIP, DEFLATE;
+
+		static Format parse(String value) {
+			switch (value) {
+			case "gzip":
+				return GZIP;
+			case "deflate":
+				return DEFLATE;
+			}
+			return null;
+		}
+	}
+
+	private final static byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	/**
+	 * Exposes the internal buffer to avoid copies
+	 */
+	static class Buffer extends ByteArrayOutputStream {
+		InputStream input() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+
+		void writeInt(int value) {
+			write(value);
+			write(value >>> 8);
+			write(value >>> 16);
+			write(value >>> 24);
+		}
+	}
+
+	private final Format format;
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private final Buffer buffer = new Buffer();
+	private Writer writer;
+
+	Compressor(Format format) {
+		this.format = format;
+		// gzip wraps raw deflate data in its own header and trailer
+		this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, format == Format.GZIP);
+	}
+
+	/**
+	 * Starts a new document, the previous one is discarded
+	 *
+	 * @return the writer of the document text
+	 */
+	Writer open() {
+		buffer.reset();
+		deflater.reset();
+		crc.reset();
+		if (format == Format.GZIP)
+			buffer.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+		writer = new OutputStreamWriter(new CheckedOutputStream(new DeflaterOutputStream(buffer, deflater), crc), StandardCharsets.UTF_8);
+		return writer;
+	}
+
+	/**
+	 * Completes the document
+	 */
+	void finish() throws IOException {
+		// closing the stream finishes but doesn't end the external deflater
+		writer.close();
+		writer = null;
+		if (format == Format.GZIP) {
+			buffer.writeInt((int) crc.getValue());
+			buffer.writeInt((int) deflater.getBytesRead());
+		}
+	}
+
+	/**
+	 * @return the length of the compressed document
+	 */
+	int length() {
+		return buffer.size();
+	}
+
+	/**
+	 * @return a stream of the compressed document
+	 */
+	InputStream input() {
+		return buffer.input();
+	}
+
+	/**
+	 * @return a copy of the compressed document
+	 */
+	byte[] toByteArray() {
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Releases the deflater
+	 */
+	void close() {
+		deflater.end();
+	}
+
+	/**
+	 * Decompresses a document in gzip or zlib format
+	 */
+	static String decompress(byte[] bytes) throws IOException {
+		InputStream input = new ByteArrayInputStream(bytes);
+		boolean gzip = bytes.length > 1 && bytes[0] == GZIP_HEADER[0] && bytes[1] == GZIP_HEADER[1];
+		try (Reader reader = new InputStreamReader(gzip ? new GZIPInputStream(input) : new InflaterInputStream(input), StandardCharsets.UTF_8)) {
+			StringWriter writer = new StringWriter();
+			char[] chars = new char[8192];
+			int n;
+			while ((n = reader.read(chars)) >= 0)
+				writer.write(chars, 0, n);
+			return writer.toString();
+		}
+	}
+}
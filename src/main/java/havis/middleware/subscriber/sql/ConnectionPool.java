@@ -0,0 +1,242 @@
+package havis.middleware.subscriber.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of the connections of a connection string. Idle connections
+ * are validated when borrowed and closed after being idle for the idle time.
+ * Each pooled connection keeps the statements prepared on it.
+ */
+class ConnectionPool {
+
+	private final static Logger log = Logger.getLogger(ConnectionPool.class.getName());
+
+	private final static int VALID_TIMEOUT = 5;
+	private final static long BORROW_MILLIS = 5000;
+
+	/**
+	 * Connection of the pool with its prepared statements. A borrowed
+	 * connection must only be used by one thread until it is released.
+	 */
+	static class Pooled {
+		final Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<>();
+		private long idle;
+
+		private Pooled(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * @return the statement of the SQL, which is prepared once per
+		 *         connection
+		 */
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement stmt = statements.get(sql);
+			if (stmt == null || stmt.isClosed()) {
+				stmt = connection.prepareStatement(sql);
+				statements.put(sql, stmt);
+			}
+			return stmt;
+		}
+
+		/**
+		 * @return the statement of the SQL returning the generated keys, which
+		 *         is prepared once per connection
+		 */
+		PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+			String key = autoGeneratedKeys + ":" + sql;
+			PreparedStatement stmt = statements.get(key);
+			if (stmt == null || stmt.isClosed()) {
+				stmt = connection.prepareStatement(sql, autoGeneratedKeys);
+				statements.put(key, stmt);
+			}
+			return stmt;
+		}
+
+		private void close() {
+			for (PreparedStatement stmt : statements.values()) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					log.log(Level.FINE, "Failed to close statement", e);
+				}
+			}
+			statements.clear();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Failed to close connection", e);
+			}
+		}
+	}
+
+	private final String connectionString;
+	/**
+	 * idle connections, the most recently released first
+	 */
+	private final Deque<Pooled> idle = new ArrayDeque<>();
+	private int size, maxSize;
+	private long idleMillis;
+	private boolean closed;
+
+	ConnectionPool(String connectionString, int maxSize, long idleMillis) {
+		this.connectionString = connectionString;
+		this.maxSize = maxSize;
+		this.idleMillis = idleMillis;
+	}
+
+	/**
+	 * Extends the limits to the largest size and the shortest idle time
+	 * requested
+	 */
+	synchronized void configure(int maxSize, long idleMillis) {
+		this.maxSize = Math.max(this.maxSize, maxSize);
+		this.idleMillis = Math.min(this.idleMillis, idleMillis);
+		closed = false;
+	}
+
+	/**
+	 * @return the number of open connections, idle or borrowed
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of idle connections
+	 */
+	synchronized int idle() {
+		return idle.size();
+	}
+
+	/**
+	 * Borrows a valid idle connection, or opens a new one if the pool is not
+	 * exhausted. Waits for a released connection otherwise.
+	 */
+	Pooled borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + BORROW_MILLIS;
+		while (true) {
+			Pooled pooled;
+			synchronized (this) {
+				while (idle.isEmpty() && size >= maxSize) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						throw new SQLException("Connection pool of size " + maxSize + " is exhausted");
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException(e);
+					}
+				}
+				pooled = idle.pollFirst();
+				if (pooled == null)
+					size++;
+			}
+			if (pooled == null)
+				return open();
+			if (valid(pooled))
+				return pooled;
+			discard(pooled);
+		}
+	}
+
+	/**
+	 * Returns the borrowed connection to the pool
+	 */
+	void release(Pooled pooled) {
+		synchronized (this) {
+			if (!closed) {
+				pooled.idle = System.currentTimeMillis();
+				idle.addFirst(pooled);
+				notifyAll();
+				return;
+			}
+			size--;
+		}
+		pooled.close();
+	}
+
+	/**
+	 * Closes the borrowed connection, e.g. if it is broken
+	 */
+	void discard(Pooled pooled) {
+		synchronized (this) {
+			size--;
+			notifyAll();
+		}
+		pooled.close();
+	}
+
+	/**
+	 * Closes the connections idle for longer than the idle time
+	 */
+	void evict() {
+		List<Pooled> evicted = new ArrayList<>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			for (Iterator<Pooled> iterator = idle.descendingIterator(); iterator.hasNext();) {
+				Pooled pooled = iterator.next();
+				if (now - pooled.idle < idleMillis)
+					break;
+				iterator.remove();
+				evicted.add(pooled);
+			}
+			size -= evicted.size();
+		}
+		for (Pooled pooled : evicted)
+			pooled.close();
+	}
+
+	/**
+	 * Closes the idle connections, borrowed connections are closed on release
+	 */
+	void close() {
+		List<Pooled> list;
+		synchronized (this) {
+			closed = true;
+			list = new ArrayList<>(idle);
+			idle.clear();
+			size -= list.size();
+			notifyAll();
+		}
+		for (Pooled pooled : list)
+			pooled.close();
+	}
+
+	private Pooled open() throws SQLException {
+		try {
+			Connection connection = DriverManager.getConnection(connectionString);
+			connection.setAutoCommit(false);
+			return new Pooled(connection);
+		} catch (SQLException | RuntimeException e) {
+			synchronized (this) {
+				size--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	private static boolean valid(Pooled pooled) {
+		try {
+			return pooled.connection.isValid(VALID_TIMEOUT);
+		} catch (SQLException e) {
+			log.log(Level.FINE, "Failed to validate connection", e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package havis.middleware.subscriber.sql;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide connection pools keyed by connection string, shared by all
+ * connectors with the same connection string. Idle connections are evicted
+ * periodically.
+ */
+public class ConnectionPools {
+
+	private final static long EVICT_MILLIS = 1000;
+
+	public final static ConnectionPools INSTANCE = new ConnectionPools();
+
+	private final Map<String, ConnectionPool> pools = new HashMap<>();
+	private ScheduledExecutorService evictor;
+
+	private ConnectionPools() {
+	}
+
+	/**
+	 * @return the pool of the connection string, created or extended to the
+	 *         limits
+	 */
+	synchronized ConnectionPool get(String connectionString, int maxSize, long idleMillis) {
+		ConnectionPool pool = pools.get(connectionString);
+		if (pool == null) {
+			pool = new ConnectionPool(connectionString, maxSize, idleMillis);
+			pools.put(connectionString, pool);
+		} else {
+			pool.configure(maxSize, idleMillis);
+		}
+		if (evictor == null) {
+			evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, ConnectionPools.class.getSimpleName() + " evictor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					for (ConnectionPool pool : pools())
+						pool.evict();
+				}
+			}, EVICT_MILLIS, EVICT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return pool;
+	}
+
+	/**
+	 * Closes the idle connections of all pools and discards the pools,
+	 * borrowed connections are closed on release
+	 */
+	public void clear() {
+		ConnectionPool[] list;
+		synchronized (this) {
+			if (evictor != null) {
+				evictor.shutdown();
+				evictor = null;
+			}
+			list = pools();
+			pools.clear();
+		}
+		for (ConnectionPool pool : list)
+			pool.close();
+	}
+
+	private synchronized ConnectionPool[] pools() {
+		return pools.values().toArray(new ConnectionPool[pools.size()]);
+	}
+}
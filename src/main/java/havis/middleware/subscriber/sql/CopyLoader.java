@@ -0,0 +1,121 @@
+package havis.middleware.subscriber.sql;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Streams rows into a PostgreSQL table using COPY FROM STDIN in text format.
+ * This class depends on the PostgreSQL driver, it must only be loaded for
+ * PostgreSQL connections.
+ */
+class CopyLoader implements Loader {
+
+	private final static Logger log = Logger.getLogger(CopyLoader.class.getName());
+
+	private final static String COPY = "COPY %s (%s) FROM STDIN";
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final String sql;
+	private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
+	private CopyIn copy;
+
+	CopyLoader(String table, String columns) {
+		sql = String.format(COPY, table, columns);
+	}
+
+	String getSql() {
+		return sql;
+	}
+
+	@Override
+	public void begin(Connection connection) throws SQLException {
+		buffer.setLength(0);
+		copy = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+	}
+
+	@Override
+	public void add(Object[] row) throws SQLException {
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0)
+				buffer.append('\t');
+			append(buffer, row[i]);
+		}
+		buffer.append('\n');
+		if (buffer.length() >= BUFFER_SIZE)
+			write();
+	}
+
+	@Override
+	public long end() throws SQLException {
+		write();
+		try {
+			return copy.endCopy();
+		} finally {
+			copy = null;
+		}
+	}
+
+	@Override
+	public void cancel() {
+		if (copy != null) {
+			try {
+				if (copy.isActive())
+					copy.cancelCopy();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Failed to cancel copy", e);
+			}
+			copy = null;
+		}
+	}
+
+	private void write() throws SQLException {
+		if (buffer.length() > 0) {
+			byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+			copy.writeToCopy(bytes, 0, bytes.length);
+			buffer.setLength(0);
+		}
+	}
+
+	/**
+	 * Appends the value in COPY text format
+	 */
+	static void append(StringBuilder buffer, Object value) {
+		if (value == null) {
+			buffer.append("\\N");
+		} else if (value instanceof byte[]) {
+			buffer.append("\\\\x");
+			buffer.append(Hex.encode((byte[]) value));
+		} else if (value.getClass() == Date.class) {
+			buffer.append(new Timestamp(((Date) value).getTime()));
+		} else {
+			String string = value.toString();
+			for (int i = 0; i < string.length(); i++) {
+				char c = string.charAt(i);
+				switch (c) {
+				case '\\':
+					buffer.append("\\\\");
+					break;
+				case '\t':
+					buffer.append("\\t");
+					break;
+				case '\n':
+					buffer.append("\\n");
+					break;
+				case '\r':
+					buffer.append("\\r");
+					break;
+				default:
+					buffer.append(c);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package havis.middleware.subscriber.sql;
+
+import java.util.Arrays;
+
+/**
+ * Time bounded set of (spec, EPC) keys. Keys are stored as 64 bit hashes in
+ * an open addressing table with linear probing, together with the time they
+ * were last accepted. Expired keys are removed when the table is rehashed, the
+ * table doesn't grow beyond the configured number of keys. Accepted keys are
+ * pending until they are confirmed, pending keys can be reverted if their rows
+ * were not written. This class is thread safe.
+ */
+class Deduplicator {
+
+	private final static int INITIAL_CAPACITY = 1024;
+	private final static long FNV_OFFSET = 0xcbf29ce484222325L, FNV_PRIME = 0x100000001b3L;
+	private final static long GOLDEN = 0x9e3779b97f4a7c15L;
+	private final static long EXPIRED = Long.MIN_VALUE;
+
+	private final long window;
+	private final int maxCapacity;
+
+	private long[] keys, times;
+	private int size;
+	/**
+	 * keys and times accepted since the last confirmation
+	 */
+	private long[] pendingKeys = new long[64], pendingTimes = new long[64];
+	private int pending;
+	private long hits, misses;
+
+	/**
+	 * @param window
+	 *            the time in milliseconds a key is remembered
+	 * @param limit
+	 *            the maximum number of keys
+	 */
+	Deduplicator(long window, int limit) {
+		this.window = window;
+		int capacity = INITIAL_CAPACITY;
+		while (capacity / 4 * 3 < limit && capacity < 1 << 30)
+			capacity <<= 1;
+		this.maxCapacity = capacity;
+		this.keys = new long[INITIAL_CAPACITY];
+		this.times = new long[keys.length];
+	}
+
+	/**
+	 * Checks whether the key was accepted within the window before the time.
+	 * Otherwise the key is accepted at the time.
+	 *
+	 * @return true if the key is a duplicate
+	 */
+	synchronized boolean seen(String spec, String epc, long now) {
+		long key = hash(spec, epc);
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				if (times[i] != EXPIRED && now - times[i] < window) {
+					hits++;
+					return true;
+				}
+				times[i] = now;
+				misses++;
+				accept(key, now);
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		times[i] = now;
+		misses++;
+		accept(key, now);
+		if (++size > keys.length / 4 * 3)
+			grow(now);
+		return false;
+	}
+
+	/**
+	 * @return the number of pending keys
+	 */
+	synchronized int pending() {
+		return pending;
+	}
+
+	/**
+	 * Confirms the keys accepted after the given number of pending keys, their
+	 * rows were written
+	 */
+	synchronized void confirm(int from) {
+		pending = Math.min(pending, from);
+	}
+
+	/**
+	 * Reverts the keys accepted after the given number of pending keys, so
+	 * they are accepted again
+	 */
+	synchronized void revert(int from) {
+		int mask = keys.length - 1;
+		for (int j = from; j < pending; j++) {
+			int i = index(pendingKeys[j], mask);
+			while (keys[i] != 0) {
+				if (keys[i] == pendingKeys[j]) {
+					// keep a key accepted again meanwhile
+					if (times[i] == pendingTimes[j])
+						times[i] = EXPIRED;
+					break;
+				}
+				i = (i + 1) & mask;
+			}
+		}
+		pending = Math.min(pending, from);
+	}
+
+	private void accept(long key, long now) {
+		if (pending == pendingKeys.length) {
+			pendingKeys = Arrays.copyOf(pendingKeys, pending << 1);
+			pendingTimes = Arrays.copyOf(pendingTimes, pending << 1);
+		}
+		pendingKeys[pending] = key;
+		pendingTimes[pending++] = now;
+	}
+
+	/**
+	 * @return the number of duplicate keys
+	 */
+	synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of accepted keys
+	 */
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of stored keys
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Removes the expired keys and doubles the capacity if the table is still
+	 * half full. If the maximum capacity is reached, keys older than half the
+	 * window are removed, or all keys if that doesn't suffice.
+	 */
+	private void grow(long now) {
+		rehash(keys.length, now - window);
+		if (size > keys.length / 2) {
+			if (keys.length < maxCapacity)
+				rehash(keys.length << 1, Long.MIN_VALUE);
+			else
+				rehash(keys.length, now - window / 2);
+		}
+		if (size > keys.length / 4 * 3) {
+			Arrays.fill(keys, 0);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Rebuilds the table with the capacity, keeping the keys accepted after
+	 * the cutoff time
+	 */
+	private void rehash(int capacity, long cutoff) {
+		long[] oldKeys = keys, oldTimes = times;
+		keys = new long[capacity];
+		times = new long[capacity];
+		size = 0;
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != 0 && oldTimes[j] > cutoff) {
+				int i = index(oldKeys[j], mask);
+				while (keys[i] != 0)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				times[i] = oldTimes[j];
+				size++;
+			}
+		}
+	}
+
+	private static int index(long key, int mask) {
+		return (int) ((key * GOLDEN) >>> 32) & mask;
+	}
+
+	/**
+	 * @return the FNV-1a hash of spec and EPC, never 0
+	 */
+	static long hash(String spec, String epc) {
+		long hash = FNV_OFFSET;
+		if (spec != null)
+			for (int i = 0; i < spec.length(); i++)
+				hash = (hash ^ spec.charAt(i)) * FNV_PRIME;
+		hash = (hash ^ 0xffff) * FNV_PRIME;
+		for (int i = 0; i < epc.length(); i++)
+			hash = (hash ^ epc.charAt(i)) * FNV_PRIME;
+		return hash != 0 ? hash : 1;
+	}
+}
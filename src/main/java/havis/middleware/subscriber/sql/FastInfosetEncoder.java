@@ -0,0 +1,79 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+import com.sun.xml.fastinfoset.stax.StAXDocumentParser;
+import com.sun.xml.fastinfoset.stax.StAXDocumentSerializer;
+
+/**
+ * Encodes documents as binary Fast Infoset into a reused buffer. The
+ * serializer is reused for all documents. This class depends on the Fast
+ * Infoset library, it must only be loaded if the Fast Infoset format is
+ * selected. This class is not thread safe.
+ */
+class FastInfosetEncoder {
+
+	final static String SERIALIZER = "com.sun.xml.fastinfoset.stax.StAXDocumentSerializer";
+
+	private final Compressor.Buffer buffer = new Compressor.Buffer();
+	private final StAXDocumentSerializer serializer = new StAXDocumentSerializer();
+
+	/**
+	 * Starts a new document, the previous one is discarded
+	 *
+	 * @return the writer of the document events
+	 */
+	XMLStreamWriter open() {
+		buffer.reset();
+		serializer.reset();
+		serializer.setOutputStream(buffer);
+		return serializer;
+	}
+
+	/**
+	 * Completes the document
+	 */
+	void finish() throws XMLStreamException {
+		serializer.flush();
+	}
+
+	/**
+	 * @return the length of the encoded document
+	 */
+	int length() {
+		return buffer.size();
+	}
+
+	/**
+	 * @return a stream of the encoded document
+	 */
+	InputStream input() {
+		return buffer.input();
+	}
+
+	/**
+	 * @return a copy of the encoded document
+	 */
+	byte[] toByteArray() {
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Decodes a Fast Infoset document to XML
+	 */
+	static String decode(byte[] bytes) throws TransformerException {
+		StringWriter writer = new StringWriter();
+		TransformerFactory.newInstance().newTransformer()
+				.transform(new StAXSource(new StAXDocumentParser(new ByteArrayInputStream(bytes))), new StreamResult(writer));
+		return writer.toString();
+	}
+}
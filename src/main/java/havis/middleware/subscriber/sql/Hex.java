@@ -0,0 +1,114 @@
+package havis.middleware.subscriber.sql;
+
+import java.util.Arrays;
+
+/**
+ * Converts hexadecimal EPC values to bytes and back
+ */
+class Hex {
+
+	private final static String RAW_PREFIX = "urn:epc:raw:";
+	private final static char[] CHARS = "0123456789ABCDEF".toCharArray();
+	private final static byte[] DIGITS = new byte[128];
+
+	static {
+		Arrays.fill(DIGITS, (byte) -1);
+		for (int i = 0; i < 10; i++)
+			DIGITS['0' + i] = (byte) i;
+		for (int i = 0; i < 6; i++) {
+			DIGITS['a' + i] = (byte) (10 + i);
+			DIGITS['A' + i] = (byte) (10 + i);
+		}
+	}
+
+	/**
+	 * Decodes a hexadecimal value. Values with an odd number of digits are
+	 * padded with a leading zero.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value isn't hexadecimal
+	 */
+	static byte[] decode(String value) {
+		if (value == null)
+			return null;
+		return decode(value, 0, 0);
+	}
+
+	/**
+	 * Decodes a raw URN "urn:epc:raw:&lt;length&gt;.x&lt;hex&gt;". The bit
+	 * length is kept as two byte prefix.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value isn't a raw URN
+	 */
+	static byte[] raw(String value) {
+		if (value == null)
+			return null;
+		int start = value.startsWith(RAW_PREFIX) ? value.indexOf(".x", RAW_PREFIX.length()) + 2 : 1;
+		if (start == 1)
+			throw new IllegalArgumentException("Value '" + value + "' is not a raw URN");
+		int bits;
+		try {
+			bits = Integer.parseInt(value.substring(RAW_PREFIX.length(), start - 2));
+		} catch (NumberFormatException e) {
+			bits = -1;
+		}
+		if (bits < 0 || bits > 0xffff)
+			throw new IllegalArgumentException("Value '" + value + "' has an invalid length");
+		byte[] bytes = decode(value, start, 2);
+		bytes[0] = (byte) (bits >> 8);
+		bytes[1] = (byte) bits;
+		return bytes;
+	}
+
+	/**
+	 * Decodes the hexadecimal digits from the start index into bytes after
+	 * the offset
+	 */
+	private static byte[] decode(String value, int start, int offset) {
+		int length = value.length() - start;
+		byte[] bytes = new byte[offset + (length + 1) / 2];
+		int i = start, j = offset;
+		if (length % 2 == 1)
+			bytes[j++] = (byte) digit(value, i++);
+		while (i < value.length())
+			bytes[j++] = (byte) (digit(value, i++) << 4 | digit(value, i++));
+		return bytes;
+	}
+
+	/**
+	 * Encodes the bytes of a decoded raw URN as raw URN
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the bytes lack the bit length
+	 */
+	static String urn(byte[] bytes) {
+		if (bytes == null)
+			return null;
+		if (bytes.length < 2)
+			throw new IllegalArgumentException("Value lacks the bit length");
+		return RAW_PREFIX + ((bytes[0] & 0xff) << 8 | bytes[1] & 0xff) + ".x" + encode(Arrays.copyOfRange(bytes, 2, bytes.length));
+	}
+
+	private static int digit(String value, int index) {
+		char c = value.charAt(index);
+		int digit = c < DIGITS.length ? DIGITS[c] : -1;
+		if (digit < 0)
+			throw new IllegalArgumentException("Value '" + value + "' is not hexadecimal");
+		return digit;
+	}
+
+	/**
+	 * Encodes the bytes as upper case hexadecimal value
+	 */
+	static String encode(byte[] bytes) {
+		if (bytes == null)
+			return null;
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = CHARS[bytes[i] >> 4 & 0x0f];
+			chars[i * 2 + 1] = CHARS[bytes[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+}
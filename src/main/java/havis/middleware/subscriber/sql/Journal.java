@@ -0,0 +1,433 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of rows, stored in memory mapped segment files. Rows are
+ * read in the order they were appended. The read position is persisted on
+ * {@link #commit()}, so rows which were read but not committed are read again
+ * after {@link #reset()} or a restart. A mark can be persisted along with the
+ * read position, e.g. to resume state of the rows read so far. The total size
+ * of the segment files can be limited, the overflow policy applies if a new
+ * segment would exceed the limit. This class is not thread safe.
+ */
+class Journal implements Closeable {
+
+	private final static Logger log = Logger.getLogger(Journal.class.getName());
+
+	private final static int MAGIC = 0x53514c4a;
+	private final static int HEADER = 16;
+	private final static int SEGMENT_SIZE = 4 * 1024 * 1024;
+	private final static String SUFFIX = ".journal";
+
+	private final static byte NULL = 0, STRING = 1, LONG = 2, INTEGER = 3, DATE = 4, BOOLEAN = 5, BYTES = 6;
+
+	/**
+	 * Behavior of {@link Journal#append(int, Object[])} if the journal is full
+	 */
+	enum Overflow {
+		/**
+		 * Fail to append the row
+		 */
+		REJECT,
+		/**
+		 * Discard the oldest segment including its uncommitted rows
+		 */
+		DROP_OLDEST;
+
+		static Overflow parse(String value) {
+			switch (value) {
+			case "reject":
+				return REJECT;
+			case "dropOldest":
+				return DROP_OLDEST;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Receives the rows read from the journal
+	 */
+	interface Replay {
+		void row(int statement, Object[] row) throws Exception;
+	}
+
+	private static class Segment {
+		long sequence;
+		File file;
+		MappedByteBuffer buffer;
+		/**
+		 * committed read offset, current read offset and write offset
+		 */
+		int committed, read, write;
+		/**
+		 * appended rows not yet written to the storage device
+		 */
+		boolean dirty;
+	}
+
+	private final File directory;
+	private final long maxSize;
+	private final Overflow overflow;
+	private final LinkedList<Segment> segments = new LinkedList<>();
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream output = new DataOutputStream(bytes);
+	private long sequence, size, mark;
+
+	/**
+	 * Opens the journal without size limit, existing segments in the directory
+	 * are restored
+	 */
+	Journal(File directory) throws IOException {
+		this(directory, 0, Overflow.REJECT);
+	}
+
+	/**
+	 * Opens the journal, existing segments in the directory are restored
+	 *
+	 * @param maxSize
+	 *            the maximum total size of the segment files in bytes, 0 for
+	 *            no limit
+	 * @param overflow
+	 *            the behavior if a new segment would exceed the limit
+	 */
+	Journal(File directory, long maxSize, Overflow overflow) throws IOException {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.overflow = overflow;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Failed to create journal directory '" + directory + "'");
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+		for (File file : files) {
+			Segment segment = open(file, 0);
+			if (segment != null) {
+				size += segment.buffer.capacity();
+				if (segment.committed < segment.write) {
+					if (segments.isEmpty())
+						mark = segment.buffer.getLong(8);
+					segments.add(segment);
+				} else {
+					delete(segment);
+				}
+				sequence = segment.sequence + 1;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the journal doesn't contain uncommitted rows
+	 */
+	boolean isEmpty() {
+		for (Segment segment : segments)
+			if (segment.committed < segment.write)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Appends a row of the statement
+	 */
+	void append(int statement, Object[] row) throws IOException {
+		bytes.reset();
+		output.writeInt(statement);
+		output.writeInt(row.length);
+		for (Object value : row) {
+			if (value == null) {
+				output.writeByte(NULL);
+			} else if (value instanceof Long) {
+				output.writeByte(LONG);
+				output.writeLong(((Long) value).longValue());
+			} else if (value instanceof Integer) {
+				output.writeByte(INTEGER);
+				output.writeInt(((Integer) value).intValue());
+			} else if (value instanceof Date) {
+				output.writeByte(DATE);
+				output.writeLong(((Date) value).getTime());
+			} else if (value instanceof Boolean) {
+				output.writeByte(BOOLEAN);
+				output.writeBoolean(((Boolean) value).booleanValue());
+			} else if (value instanceof byte[]) {
+				output.writeByte(BYTES);
+				output.writeInt(((byte[]) value).length);
+				output.write((byte[]) value);
+			} else {
+				byte[] string = value.toString().getBytes(StandardCharsets.UTF_8);
+				output.writeByte(STRING);
+				output.writeInt(string.length);
+				output.write(string);
+			}
+		}
+		output.flush();
+
+		int length = bytes.size();
+		Segment segment = segments.peekLast();
+		if (segment == null || segment.buffer.capacity() - segment.write < length + 8) {
+			int capacity = Math.max(SEGMENT_SIZE, HEADER + length + 8);
+			if (maxSize > 0) {
+				capacity = (int) Math.max(HEADER + length + 8, Math.min(capacity, maxSize));
+				while (size + capacity > maxSize) {
+					if (overflow != Overflow.DROP_OLDEST || segments.isEmpty())
+						throw new IOException("Journal exceeds the maximum size of " + maxSize + " bytes");
+					Segment oldest = segments.removeFirst();
+					log.log(Level.WARNING, "Journal is full, dropping uncommitted rows of journal file ''{0}''", oldest.file);
+					delete(oldest);
+					// the mark belongs to the dropped rows
+					mark(0);
+				}
+			}
+			segment = open(new File(directory, String.format("%016d%s", Long.valueOf(sequence), SUFFIX)), capacity);
+			sequence++;
+			segments.add(segment);
+			size += capacity;
+		}
+		// the length is written last, a partially written row is ignored on restore
+		segment.buffer.position(segment.write + 4);
+		segment.buffer.put(bytes.toByteArray(), 0, length);
+		segment.buffer.putInt(segment.write, length);
+		segment.write += 4 + length;
+		segment.dirty = true;
+	}
+
+	/**
+	 * Writes the appended rows to the storage device
+	 */
+	void sync() {
+		for (Segment segment : segments) {
+			if (segment.dirty) {
+				segment.buffer.force();
+				segment.dirty = false;
+			}
+		}
+	}
+
+	/**
+	 * @return the total size of the segment files in bytes
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Reads up to max rows from the current read position
+	 *
+	 * @return the number of rows read
+	 */
+	int replay(Replay replay, int max) throws Exception {
+		int count = 0;
+		for (Segment segment : segments) {
+			while (count < max && segment.read < segment.write) {
+				int length = segment.buffer.getInt(segment.read);
+				segment.buffer.position(segment.read + 4);
+				int statement = segment.buffer.getInt();
+				Object[] row = new Object[segment.buffer.getInt()];
+				for (int i = 0; i < row.length; i++)
+					row[i] = value(segment.buffer);
+				segment.read += 4 + length;
+				replay.row(statement, row);
+				count++;
+			}
+			if (count == max)
+				break;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the mark persisted with the committed read position, 0 if none
+	 */
+	long mark() {
+		return mark;
+	}
+
+	/**
+	 * Persists the current read position along with the mark
+	 */
+	void commit(long mark) {
+		this.mark = mark;
+		commit();
+	}
+
+	/**
+	 * Persists the current read position, completely read segments are
+	 * deleted
+	 */
+	void commit() {
+		while (!segments.isEmpty()) {
+			Segment segment = segments.peekFirst();
+			if (segment.committed < segment.read) {
+				segment.committed = segment.read;
+				segment.buffer.putInt(4, segment.committed);
+				segment.dirty = true;
+			}
+			if (segment.committed < segment.write) {
+				mark(mark);
+				break;
+			}
+			delete(segments.removeFirst());
+		}
+	}
+
+	/**
+	 * Resets the read position to the last committed position
+	 */
+	void reset() {
+		for (Segment segment : segments)
+			segment.read = segment.committed;
+	}
+
+	/**
+	 * Writes the appended rows to the storage device and releases the
+	 * mappings of the segment files
+	 */
+	@Override
+	public void close() {
+		sync();
+		for (Segment segment : segments)
+			unmap(segment);
+		segments.clear();
+		size = 0;
+	}
+
+	private Object value(MappedByteBuffer buffer) {
+		switch (buffer.get()) {
+		case LONG:
+			return Long.valueOf(buffer.getLong());
+		case INTEGER:
+			return Integer.valueOf(buffer.getInt());
+		case DATE:
+			return new Date(buffer.getLong());
+		case BOOLEAN:
+			return Boolean.valueOf(buffer.get() != 0);
+		case BYTES:
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return bytes;
+		case STRING:
+			byte[] string = new byte[buffer.getInt()];
+			buffer.get(string);
+			return new String(string, StandardCharsets.UTF_8);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Opens or creates a segment file
+	 *
+	 * @param size
+	 *            the size of a new segment file
+	 */
+	private Segment open(File file, int size) throws IOException {
+		Segment segment = new Segment();
+		segment.file = file;
+		try {
+			segment.sequence = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			log.log(Level.WARNING, "Ignoring journal file ''{0}''", file);
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			boolean exists = raf.length() > HEADER;
+			segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, exists ? raf.length() : size);
+			if (exists) {
+				if (segment.buffer.getInt(0) != MAGIC) {
+					log.log(Level.WARNING, "Ignoring journal file ''{0}''", file);
+					unmap(segment);
+					return null;
+				}
+				segment.committed = segment.buffer.getInt(4);
+				segment.write = HEADER;
+				int length;
+				while (segment.write + 4 <= segment.buffer.capacity() && (length = segment.buffer.getInt(segment.write)) > 0
+						&& segment.write + 4 + length <= segment.buffer.capacity())
+					segment.write += 4 + length;
+			} else {
+				segment.buffer.putInt(0, MAGIC);
+				segment.buffer.putInt(4, HEADER);
+				segment.buffer.putLong(8, 0);
+				segment.committed = HEADER;
+				segment.write = HEADER;
+			}
+			segment.read = segment.committed;
+		}
+		return segment;
+	}
+
+	/**
+	 * Sets the mark and writes it to the first segment
+	 */
+	private void mark(long mark) {
+		this.mark = mark;
+		Segment segment = segments.peekFirst();
+		if (segment != null) {
+			segment.buffer.putLong(8, mark);
+			segment.buffer.force();
+			segment.dirty = false;
+		}
+	}
+
+	/**
+	 * Releases the mapping and deletes the segment file
+	 */
+	private void delete(Segment segment) {
+		if (segment.buffer != null) {
+			size -= segment.buffer.capacity();
+			unmap(segment);
+		}
+		if (!segment.file.delete())
+			log.log(Level.WARNING, "Failed to delete journal file ''{0}''", segment.file);
+	}
+
+	/**
+	 * Releases the mapping of the segment file immediately instead of on
+	 * garbage collection, which would keep the file open. The JDK internals
+	 * are resolved by the bootstrap class loader, so no package import is
+	 * required. If they are not available, the mapping is released on garbage
+	 * collection. The buffer must not be used afterwards.
+	 */
+	private static void unmap(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+		segment.buffer = null;
+		try {
+			try {
+				// Java 9 and later
+				Class<?> type = Class.forName("sun.misc.Unsafe", true, null);
+				Field field = type.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				type.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				Method method = buffer.getClass().getMethod("cleaner");
+				method.setAccessible(true);
+				Object cleaner = method.invoke(buffer);
+				if (cleaner != null)
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			log.log(Level.FINE, "Failed to unmap journal file, released on garbage collection: " + segment.file, e);
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the XML events as JsonML, i.e. each element as array of its local
+ * name, an optional object of its attributes and its children, text as
+ * string. The output is written directly to the writer, namespaces, comments
+ * and processing instructions are omitted. This class is not thread safe.
+ */
+class JsonStreamWriter implements XMLStreamWriter {
+
+	private final static NamespaceContext EMPTY = new NamespaceContext() {
+		@Override
+		public String getNamespaceURI(String prefix) {
+			return null;
+		}
+
+		@Override
+		public String getPrefix(String namespaceURI) {
+			return null;
+		}
+
+		@Override
+		public Iterator<?> getPrefixes(String namespaceURI) {
+			return Collections.emptyIterator();
+		}
+	};
+
+	private final Writer writer;
+	private int depth;
+	/**
+	 * the start tag is open, attributes may follow
+	 */
+	private boolean start;
+	/**
+	 * the attribute object of the open start tag is open
+	 */
+	private boolean attributes;
+	/**
+	 * the open start tag belongs to an empty element
+	 */
+	private boolean empty;
+
+	JsonStreamWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	@Override
+	public void writeStartElement(String localName) throws XMLStreamException {
+		try {
+			closeStart();
+			if (depth > 0)
+				writer.write(',');
+			writer.write('[');
+			string(localName);
+			depth++;
+			start = true;
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+		writeStartElement(localName);
+	}
+
+	@Override
+	public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+		writeStartElement(localName);
+	}
+
+	@Override
+	public void writeEmptyElement(String localName) throws XMLStreamException {
+		writeStartElement(localName);
+		empty = true;
+	}
+
+	@Override
+	public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+		writeEmptyElement(localName);
+	}
+
+	@Override
+	public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+		writeEmptyElement(localName);
+	}
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+		try {
+			closeStart();
+			if (depth > 0) {
+				writer.write(']');
+				depth--;
+			}
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		while (depth > 0)
+			writeEndElement();
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+	}
+
+	@Override
+	public void flush() throws XMLStreamException {
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeAttribute(String localName, String value) throws XMLStreamException {
+		if (!start)
+			throw new XMLStreamException("Attribute '" + localName + "' outside of start tag");
+		try {
+			writer.write(',');
+			if (!attributes) {
+				writer.write('{');
+				attributes = true;
+			}
+			string(localName);
+			writer.write(':');
+			string(value);
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+		writeAttribute(localName, value);
+	}
+
+	@Override
+	public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+		writeAttribute(localName, value);
+	}
+
+	@Override
+	public void writeNamespace(String prefix, String namespaceURI) {
+	}
+
+	@Override
+	public void writeDefaultNamespace(String namespaceURI) {
+	}
+
+	@Override
+	public void writeComment(String data) {
+	}
+
+	@Override
+	public void writeProcessingInstruction(String target) {
+	}
+
+	@Override
+	public void writeProcessingInstruction(String target, String data) {
+	}
+
+	@Override
+	public void writeCData(String data) throws XMLStreamException {
+		writeCharacters(data);
+	}
+
+	@Override
+	public void writeDTD(String dtd) {
+	}
+
+	@Override
+	public void writeEntityRef(String name) throws XMLStreamException {
+		writeCharacters("&" + name + ";");
+	}
+
+	@Override
+	public void writeStartDocument() {
+	}
+
+	@Override
+	public void writeStartDocument(String version) {
+	}
+
+	@Override
+	public void writeStartDocument(String encoding, String version) {
+	}
+
+	@Override
+	public void writeCharacters(String text) throws XMLStreamException {
+		if (text.length() > 0) {
+			try {
+				closeStart();
+				writer.write(',');
+				string(text);
+			} catch (IOException e) {
+				throw new XMLStreamException(e);
+			}
+		}
+	}
+
+	@Override
+	public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+		writeCharacters(new String(text, start, len));
+	}
+
+	@Override
+	public String getPrefix(String uri) {
+		return null;
+	}
+
+	@Override
+	public void setPrefix(String prefix, String uri) {
+	}
+
+	@Override
+	public void setDefaultNamespace(String uri) {
+	}
+
+	@Override
+	public void setNamespaceContext(NamespaceContext context) {
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return EMPTY;
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		throw new IllegalArgumentException("Property '" + name + "' is not supported");
+	}
+
+	/**
+	 * Closes the open start tag
+	 */
+	private void closeStart() throws IOException {
+		if (start) {
+			if (attributes)
+				writer.write('}');
+			start = false;
+			attributes = false;
+			if (empty) {
+				empty = false;
+				writer.write(']');
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Writes the value as JSON string
+	 */
+	private void string(String value) throws IOException {
+		writer.write('"');
+		int begin = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\' || c < 0x20) {
+				writer.write(value, begin, i - begin);
+				switch (c) {
+				case '"':
+					writer.write("\\\"");
+					break;
+				case '\\':
+					writer.write("\\\\");
+					break;
+				case '\n':
+					writer.write("\\n");
+					break;
+				case '\r':
+					writer.write("\\r");
+					break;
+				case '\t':
+					writer.write("\\t");
+					break;
+				default:
+					writer.write(String.format("\\u%04x", Integer.valueOf(c)));
+				}
+				begin = i + 1;
+			}
+		}
+		writer.write(value, begin, value.length() - begin);
+		writer.write('"');
+	}
+}
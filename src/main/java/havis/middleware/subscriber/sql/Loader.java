@@ -0,0 +1,33 @@
+package havis.middleware.subscriber.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Bulk load of rows using a driver specific API instead of insert statements
+ */
+interface Loader {
+
+	/**
+	 * Starts loading on the connection
+	 */
+	void begin(Connection connection) throws SQLException;
+
+	/**
+	 * Adds a row, the values are in column order. The array may be reused by
+	 * the caller after this call.
+	 */
+	void add(Object[] row) throws SQLException;
+
+	/**
+	 * Completes loading
+	 *
+	 * @return the number of loaded rows
+	 */
+	long end() throws SQLException;
+
+	/**
+	 * Cancels a running load
+	 */
+	void cancel();
+}
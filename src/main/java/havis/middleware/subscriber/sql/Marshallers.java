@@ -0,0 +1,93 @@
+package havis.middleware.subscriber.sql;
+
+import havis.middleware.ale.service.cc.CCReports;
+import havis.middleware.ale.service.ec.ECReports;
+import havis.middleware.ale.service.pc.PCReports;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+/**
+ * Process wide cache of the JAXB contexts of the report types and of their
+ * idle marshallers. Marshallers are not thread safe, an acquired marshaller
+ * must only be used by one thread until it is released. The number of
+ * acquired marshallers isn't limited, each connector holds one per report
+ * type it writes until it is disposed. Only the number of cached idle
+ * marshallers is limited, they are reused by connectors created later.
+ */
+public class Marshallers {
+
+	private final static int CACHE_SIZE = 8;
+
+	private final static Class<?>[] TYPES = { ECReports.class, CCReports.class, PCReports.class };
+
+	public final static Marshallers INSTANCE = new Marshallers();
+
+	private final ConcurrentMap<Class<?>, JAXBContext> contexts = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Class<?>, BlockingQueue<Marshaller>> idle = new ConcurrentHashMap<>();
+
+	private Marshallers() {
+	}
+
+	/**
+	 * Creates the contexts of all report types in advance
+	 */
+	public void init() throws JAXBException {
+		for (Class<?> type : TYPES)
+			context(type);
+	}
+
+	/**
+	 * Discards the contexts and cached marshallers
+	 */
+	public void clear() {
+		contexts.clear();
+		idle.clear();
+	}
+
+	/**
+	 * @return a cached or new marshaller of the report type
+	 */
+	Marshaller acquire(Class<?> type) throws JAXBException {
+		Marshaller marshaller = idle(type).poll();
+		return marshaller != null ? marshaller : context(type).createMarshaller();
+	}
+
+	/**
+	 * Returns the marshaller to the cache, it is discarded if the cache is
+	 * full
+	 */
+	void release(Class<?> type, Marshaller marshaller) {
+		if (marshaller != null)
+			idle(type).offer(marshaller);
+	}
+
+	private JAXBContext context(Class<?> type) throws JAXBException {
+		JAXBContext context = contexts.get(type);
+		if (context == null) {
+			// concurrent first calls may create the context more than once
+			context = JAXBContext.newInstance(type);
+			JAXBContext existing = contexts.putIfAbsent(type, context);
+			if (existing != null)
+				context = existing;
+		}
+		return context;
+	}
+
+	private BlockingQueue<Marshaller> idle(Class<?> type) {
+		BlockingQueue<Marshaller> cache = idle.get(type);
+		if (cache == null) {
+			BlockingQueue<Marshaller> created = new ArrayBlockingQueue<>(CACHE_SIZE);
+			cache = idle.putIfAbsent(type, created);
+			if (cache == null)
+				cache = created;
+		}
+		return cache;
+	}
+}
@@ -0,0 +1,139 @@
+package havis.middleware.subscriber.sql;
+
+import havis.middleware.ale.service.cc.CCReports;
+import havis.middleware.ale.service.ec.ECReports;
+import havis.middleware.ale.service.pc.PCReports;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Least recently used hashes of the plain payloads known to be stored in the
+ * payload table, and the helpers to normalize and hash the payloads. This
+ * class is not thread safe.
+ */
+class Payloads {
+
+	/**
+	 * length of the hex encoded SHA-256 hash
+	 */
+	final static int HASH_LENGTH = 64;
+
+	/**
+	 * fields describing the cycle of the reports rather than their content
+	 */
+	private final static Set<String> CYCLE_FIELDS = new HashSet<>(Arrays.asList("totalMilliseconds", "initiationCondition", "initiationTrigger",
+			"terminationCondition", "terminationTrigger"));
+
+	private final static ConcurrentMap<Class<?>, Field[]> fields = new ConcurrentHashMap<>();
+
+	private final Map<String, Boolean> hashes;
+	private final MessageDigest digest;
+
+	Payloads(final int size) {
+		hashes = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > size;
+			}
+		};
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return true if the payload of the hash was recently stored or found
+	 */
+	boolean contains(String hash) {
+		return hashes.get(hash) != null;
+	}
+
+	/**
+	 * Adds the hash of a stored or found payload
+	 */
+	void add(String hash) {
+		hashes.put(hash, Boolean.TRUE);
+	}
+
+	/**
+	 * Forgets all hashes, e.g. if stored payloads were rolled back
+	 */
+	void clear() {
+		hashes.clear();
+	}
+
+	/**
+	 * @return the number of recent hashes
+	 */
+	int size() {
+		return hashes.size();
+	}
+
+	/**
+	 * @return the hex encoded SHA-256 hash of the text or bytes
+	 */
+	String hash(Object payload) {
+		byte[] bytes = payload instanceof byte[] ? (byte[]) payload : payload.toString().getBytes(StandardCharsets.UTF_8);
+		return Hex.encode(digest.digest(bytes));
+	}
+
+	/**
+	 * Returns a shallow copy of the reports without the date and time fields
+	 * and the duration, initiation and termination of the cycle, so that
+	 * reports of repeated cycles have the same payload
+	 */
+	static Object undated(Object reports) {
+		Class<?> type = reports instanceof ECReports ? ECReports.class : reports instanceof CCReports ? CCReports.class : PCReports.class;
+		try {
+			Object copy = type.newInstance();
+			for (Field field : fields(type))
+				field.set(copy, field.get(reports));
+			return copy;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the accessible instance fields of the type and its super types,
+	 *         except date, time and cycle fields
+	 */
+	private static Field[] fields(Class<?> type) {
+		Field[] result = fields.get(type);
+		if (result == null) {
+			List<Field> list = new ArrayList<>();
+			for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()) || Date.class.isAssignableFrom(field.getType())
+							|| XMLGregorianCalendar.class.isAssignableFrom(field.getType()) || CYCLE_FIELDS.contains(field.getName()))
+						continue;
+					field.setAccessible(true);
+					list.add(field);
+				}
+			}
+			result = list.toArray(new Field[list.size()]);
+			fields.putIfAbsent(type, result);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,99 @@
+package havis.middleware.subscriber.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates the reads per EPC in memory until they are drained. Reads of
+ * different EPCs are added in parallel, each tally is locked on its own.
+ */
+class Rollup {
+
+	/**
+	 * Aggregate of the reads of an EPC since the last drain
+	 */
+	static class Tally {
+		final String epc;
+		long first, last, count;
+		String group;
+		/**
+		 * set when the tally was drained, further reads go to a new tally
+		 */
+		boolean drained;
+
+		Tally(String epc) {
+			this.epc = epc;
+		}
+
+		private void add(long first, long last, long count, String group) {
+			if (this.count == 0 || first < this.first)
+				this.first = first;
+			if (this.count == 0 || last >= this.last) {
+				this.last = last;
+				this.group = group;
+			}
+			this.count += count;
+		}
+	}
+
+	private final ConcurrentMap<String, Tally> tallies = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds a read of the EPC in the group at the time
+	 */
+	void add(String epc, String group, long time) {
+		add(epc, time, time, 1, group);
+	}
+
+	/**
+	 * Puts the tallies back, e.g. if they failed to be written
+	 */
+	void restore(List<Tally> list) {
+		for (Tally tally : list)
+			add(tally.epc, tally.first, tally.last, tally.count, tally.group);
+	}
+
+	/**
+	 * Removes and returns all tallies
+	 */
+	List<Tally> drain() {
+		List<Tally> list = new ArrayList<>();
+		for (String epc : tallies.keySet()) {
+			Tally tally = tallies.remove(epc);
+			if (tally != null) {
+				synchronized (tally) {
+					tally.drained = true;
+				}
+				list.add(tally);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return the number of EPCs read since the last drain
+	 */
+	int size() {
+		return tallies.size();
+	}
+
+	private void add(String epc, long first, long last, long count, String group) {
+		while (true) {
+			Tally tally = tallies.get(epc);
+			if (tally == null) {
+				Tally created = new Tally(epc);
+				tally = tallies.putIfAbsent(epc, created);
+				if (tally == null)
+					tally = created;
+			}
+			synchronized (tally) {
+				if (!tally.drained) {
+					tally.add(first, last, count, group);
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package havis.middleware.subscriber.sql;
+
+import havis.middleware.ale.service.ec.ECReportGroupListMember;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * The values of the current row of a report. Values which don't apply to the
+ * kind of report are null. The report level values are set once per report.
+ */
+class Row {
+	String spec;
+	Timestamp date;
+	long totalMilliseconds;
+	String initiationCondition, initiationTrigger, terminationCondition, terminationTrigger;
+	String report;
+	/**
+	 * generated id of the header row in normalized mode
+	 */
+	Long header;
+	// EC
+	String group;
+	Integer count;
+	ECReportGroupListMember member;
+	/**
+	 * values of the field columns of the member
+	 */
+	String[] fields;
+	// CC + PC
+	String id, name, status;
+	Object data;
+
+	Row(String spec, Date date, long totalMilliseconds, String initiationCondition, String initiationTrigger, String terminationCondition,
+			String terminationTrigger) {
+		this.spec = spec;
+		this.date = date != null ? new Timestamp(date.getTime()) : null;
+		this.totalMilliseconds = totalMilliseconds;
+		this.initiationCondition = initiationCondition;
+		this.initiationTrigger = initiationTrigger;
+		this.terminationCondition = terminationCondition;
+		this.terminationTrigger = terminationTrigger;
+	}
+}
@@ -20,6 +20,7 @@ import havis.middleware.ale.service.pc.PCReports;
 import havis.middleware.ale.subscriber.SubscriberConnector;
 import havis.middleware.subscriber.sql.rest.Storage;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
@@ -27,6 +28,7 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -34,20 +36,38 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.supercsv.cellprocessor.ift.CellProcessor;
 import org.supercsv.io.CsvResultSetWriter;
@@ -62,22 +82,80 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 	private static havis.middleware.ale.service.cc.ObjectFactory ccFactory = new havis.middleware.ale.service.cc.ObjectFactory();
 	private static havis.middleware.ale.service.pc.ObjectFactory pcFactory = new havis.middleware.ale.service.pc.ObjectFactory();
 
+	/**
+	 * marshallers acquired from the cache, released on dispose
+	 */
 	private Marshaller ecMarshaller, ccMarshaller, pcMarshaller;
 
 	private final static String JDBC_PREFIX = "jdbc:";
+	private final static int BATCH_SIZE = 1000;
+	private final static int MAX_VALUES_ROWS = 1000;
+	private final static int TEXT_ROW = 0, PLAIN_ROW = 1, HEADER_ROW = 2, PAYLOAD_ROW = 3;
+	private final static int[] PLAIN_TYPES = { Types.VARCHAR }, COMPRESSED_PLAIN_TYPES = { Types.VARBINARY };
+	/**
+	 * columns of the cycle written next to the payload hash, as the payload
+	 * is stored without them
+	 */
+	private final static String[] CYCLE_COLUMNS = { "report_date", "total_milliseconds", "initiation_condition", "initiation_trigger",
+			"termination_condition", "termination_trigger" };
+	private final static String[] CYCLE_DEFINITIONS = { "TIMESTAMP", "BIGINT", "TEXT", "TEXT", "TEXT", "TEXT" };
+	private final static int[] PAYLOAD_PLAIN_TYPES = { Types.VARCHAR, Types.TIMESTAMP, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+			Types.VARCHAR };
+	private final static int REPLAY_ROWS = 1000;
+	private final static long REPLAY_MILLIS = 5000;
+	private final static int JOURNAL_SIZE = 256;
+	private final static int ROLLUP_MILLIS = 10000;
+	private final static String[] ROLLUP_COLUMNS = { "first_seen", "last_seen", "read_count", "last_group" };
+	private static final String ROLLUP_UPDATE = "UPDATE %s SET %s = ?, %s = %s + ?, %s = ? WHERE %s = ?";
+	private final static int VALID_TIMEOUT = 5;
+	private final static int DEDUP_SIZE = 65536;
+	private final static int PAYLOAD_CACHE = 1024;
+	private final static int POOL_IDLE_MILLIS = 60000;
+	private final static int BREAKER_FAILURES = 5;
+	private final static int BACKOFF_MILLIS = 1000, BACKOFF_MAX_MILLIS = 60000;
+	/**
+	 * SQLState classes of failures which may succeed later: connection
+	 * exception, insufficient resources, operator intervention and timeout
+	 */
+	private final static String[] TRANSIENT_STATES = { "08", "53", "57", "HYT" };
+	/**
+	 * SQLState class of transactions rolled back by the database, which are
+	 * retried on the same connection
+	 */
+	private final static String ROLLBACK_STATE = "40";
+	private final static int TRANSACTION_RETRIES = 3;
 	private final static String CREATE = "CREATE TABLE %s (%s)";
 	private final static String INSERT = "INSERT INTO %s (%s) VALUES (%s)";
 	private static final String SELECT = "SELECT %s FROM %s LIMIT ? OFFSET ?";
 	private static final String DELETE = "DELETE FROM %s";
 	private static final String DROP = "DROP TABLE %s";
+	private static final String JOIN = "SELECT %s FROM %s m JOIN %s h ON m.%s = h.%s LIMIT ? OFFSET ?";
+	private static final String FOREIGN_KEY = ",FOREIGN KEY (%s) REFERENCES %s (%s)";
+	private static final String PRIMARY_KEY = ",PRIMARY KEY (%s)";
+	private static final String EXISTS = "SELECT 1 FROM %s WHERE %s = ?";
+	private final static String HEADER_ID = "header_id", ID = "id", HASH = "hash";
 
 	private final Pattern STRICT_IDENTIFIER_PATTERN = Pattern.compile("^[a-z][\\w\\-]*$", Pattern.CASE_INSENSITIVE);
+	private final static Pattern TYPE_PATTERN = Pattern.compile("^[a-z][\\w ]*(\\(\\s*\\d+\\s*(,\\s*\\d+\\s*)?\\))?$", Pattern.CASE_INSENSITIVE);
 
-	private final static CellProcessor processor = new CellProcessor() {
+	/**
+	 * Processor of exported column values converted to text
+	 */
+	private abstract static class TextProcessor implements CellProcessor {
 
 		@SuppressWarnings("unchecked")
 		@Override
-		public String execute(Object value, CsvContext context) {
+		public <T> T execute(Object value, CsvContext context) {
+			return (T) text(value);
+		}
+
+		abstract String text(Object value);
+	}
+
+	private final static CellProcessor processor = new TextProcessor() {
+
+		@Override
+		String text(Object value) {
 			if (value instanceof Clob) {
 				Clob clob = (Clob) value;
 				try {
@@ -93,6 +171,77 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 		}
 	};
 
+	private final static CellProcessor hex = new TextProcessor() {
+
+		@Override
+		String text(Object value) {
+			try {
+				return Hex.encode(bytes(value));
+			} catch (Exception e) {
+				log.log(Level.FINE, "Failed to read column data", e);
+			}
+			return null;
+		}
+	};
+
+	private final static CellProcessor raw = new TextProcessor() {
+
+		@Override
+		String text(Object value) {
+			try {
+				return Hex.urn(bytes(value));
+			} catch (Exception e) {
+				log.log(Level.FINE, "Failed to read column data", e);
+			}
+			return null;
+		}
+	};
+
+	private final static CellProcessor inflate = new TextProcessor() {
+
+		@Override
+		String text(Object value) {
+			try {
+				byte[] bytes = bytes(value);
+				if (bytes != null)
+					return Compressor.decompress(bytes);
+			} catch (Exception e) {
+				log.log(Level.FINE, "Failed to decompress column data", e);
+			}
+			return null;
+		}
+	};
+
+	private final static CellProcessor decode = new TextProcessor() {
+
+		@Override
+		String text(Object value) {
+			try {
+				byte[] bytes = bytes(value);
+				if (bytes != null)
+					return FastInfosetEncoder.decode(bytes);
+			} catch (Exception e) {
+				log.log(Level.FINE, "Failed to decode column data", e);
+			}
+			return null;
+		}
+	};
+
+	private final static CellProcessor base64 = new TextProcessor() {
+
+		@Override
+		String text(Object value) {
+			try {
+				byte[] bytes = bytes(value);
+				if (bytes != null)
+					return Base64.getEncoder().encodeToString(bytes);
+			} catch (Exception e) {
+				log.log(Level.FINE, "Failed to read column data", e);
+			}
+			return null;
+		}
+	};
+
 	class ColumnMap {
 		protected int spec, date, totalMilliseconds, initiationCondition, initiationTrigger, terminationCondition, terminationTrigger, report;
 		// EC
@@ -102,24 +251,223 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 		protected int id, name, status, data;
 	}
 
+	/**
+	 * Collects the configured columns. A column name may be followed by a SQL
+	 * type overriding the default type of the column, e.g. "cnt:SMALLINT".
+	 */
+	/**
+	 * Reports written to the uncommitted group
+	 */
+	private static class Grouped {
+		private final Object reports;
+		private final Set<ECReportGroupListMember> duplicates;
+
+		private Grouped(Object reports, Set<ECReportGroupListMember> duplicates) {
+			this.reports = reports;
+			this.duplicates = duplicates;
+		}
+	}
+
+	private class Columns {
+		private StringBuilder names = new StringBuilder(), parameters = new StringBuilder(), definitions = new StringBuilder();
+		private List<String> list = new ArrayList<>();
+		private List<Integer> types = new ArrayList<>();
+		/**
+		 * columns bound with a converted value
+		 */
+		private BitSet typed = new BitSet();
+
+		/**
+		 * Adds the column
+		 *
+		 * @param type
+		 *            the default SQL type of the column
+		 * @param natural
+		 *            the JDBC type of the value
+		 * @return the parameter index of the column
+		 */
+		int add(String key, String value, String type, int natural) throws InvalidURIException {
+			String name = value;
+			int colon = value.lastIndexOf(':');
+			if (colon > 0) {
+				name = value.substring(0, colon);
+				type = value.substring(colon + 1).trim();
+				if (!TYPE_PATTERN.matcher(type).matches())
+					throw new InvalidURIException("Column type '" + type + "' is invalid for field '" + key + "'");
+			}
+			match(key, name);
+			String column = String.format(identifierQuoteFormat, name);
+			names.append(',');
+			names.append(column);
+			parameters.append(",?");
+			definitions.append(',');
+			definitions.append(column);
+			definitions.append(' ');
+			definitions.append(type);
+			list.add(name);
+			int jdbcType = Binder.type(type);
+			if (jdbcType != natural)
+				typed.set(list.size() - 1);
+			types.add(Integer.valueOf(jdbcType));
+			return list.size();
+		}
+
+		int size() {
+			return list.size();
+		}
+
+		/**
+		 * @return the JDBC types of the columns
+		 */
+		int[] types() {
+			int[] result = new int[types.size()];
+			for (int i = 0; i < result.length; i++)
+				result[i] = types.get(i).intValue();
+			return result;
+		}
+	}
+
 	private ColumnMap map = new ColumnMap();
+	/**
+	 * slots of the field columns bound by field name, or null
+	 */
+	private Map<String, Integer> fieldNames;
+	/**
+	 * whether the field column of the slot is bound by position
+	 */
+	private boolean[] fieldPositions;
+	private int[] columnTypes;
+	private BitSet typed;
+	private Binder[][] ecPlan, opPlan;
+	/**
+	 * level of the EC report tree which produces a row
+	 */
+	private int granularity;
+	private Object[] values;
 
 	private Connection connection;
+	/**
+	 * pool of the connection string, or null for a dedicated connection
+	 */
+	private ConnectionPool pool;
+	/**
+	 * connection borrowed from the pool, or null
+	 */
+	private ConnectionPool.Pooled pooled;
+	private int poolSize, poolIdleMillis = POOL_IDLE_MILLIS;
+
+	private int breakerFailures = BREAKER_FAILURES, backoffMillis = BACKOFF_MILLIS, backoffMaxMillis = BACKOFF_MAX_MILLIS;
+	private CircuitBreaker breaker = new CircuitBreaker(BREAKER_FAILURES, BACKOFF_MILLIS, BACKOFF_MAX_MILLIS);
 	private Pattern identifierPattern = null;
 	private String identifierQuoteFormat;
+	private String dialect;
 	private String table;
 	private String connectionString, storage, select, delete;
 	private String TEXT;
 	private String PLAIN;
+	private PreparedStatement textStatement, plainStatement;
+
+	private String headerTable, HEADER, deleteHeader;
+	private PreparedStatement headerStatement;
+	/**
+	 * reused buffer of streamed plain output, or null
+	 */
+	private ChunkWriter plainBuffer;
+	/**
+	 * compressor of the plain output, or null
+	 */
+	private Compressor compressor;
+	/**
+	 * plain output is written as JsonML instead of XML
+	 */
+	private boolean json;
+	/**
+	 * encoder of the plain output as Fast Infoset, or null
+	 */
+	private FastInfosetEncoder encoder;
+	private int[] plainTypes = PLAIN_TYPES;
+	/**
+	 * processor of the exported binary plain output, or null
+	 */
+	private CellProcessor plainProcessor;
+	/**
+	 * name of the binary raw EPC column, or null
+	 */
+	private String rawColumn;
+	private String payloadTable, PAYLOAD, FIND;
+	private PreparedStatement payloadStatement, findStatement;
+	private int payloadCache = PAYLOAD_CACHE;
+	/**
+	 * hashes of the recently stored payloads, or null
+	 */
+	private Payloads payloads;
+	private int[] payloadTypes;
+	private Binder[] headerPlan;
+	private int[] headerTypes;
+	private Object[] headerValues;
+	/**
+	 * id of the last replayed header row, persisted as mark of the journal
+	 */
+	private Long lastHeader;
 
 	boolean init, drop, clear;
 
+	private int batchSize, batch;
+
+	private String load;
+	private int columnCount;
+	private Loader loader;
+
+	private boolean async;
+	private int queueSize = 1000;
+	private AsyncWriter.Policy queuePolicy = AsyncWriter.Policy.BLOCK;
+	private AsyncWriter asyncWriter;
+
+	private int commitRows, commitMillis, rows;
+	private ScheduledExecutorService committer;
+
+	private Journal journal;
+	private ScheduledExecutorService replayer;
+	/**
+	 * reports of the uncommitted group with their duplicates, journaled if the
+	 * group is rolled back
+	 */
+	private List<Grouped> group = new ArrayList<>();
+	/**
+	 * number of pending deduplication keys of the reports of the group
+	 */
+	private int groupKeys;
+
+	private int rollupMillis = ROLLUP_MILLIS, rollupType;
+	private String rollupUpdate, rollupInsert;
+	private Rollup rollup;
+	private ScheduledExecutorService flusher;
+
+	private int dedupWindow, dedupSize = DEDUP_SIZE;
+	private Deduplicator deduplicator;
+	/**
+	 * members of the current EC reports which are dropped as duplicates
+	 */
+	private Set<ECReportGroupListMember> duplicates;
+
 	@Override
 	public void init(URI uri, Map<String, String> properties) throws InvalidURIException, ImplementationException {
 		identifierQuoteFormat = "\"%s\"";
 		identifierPattern = null;
-		String plain = null;
-		StringBuilder columns = new StringBuilder(), values = new StringBuilder(), types = new StringBuilder();
+		dialect = null;
+		String plain = null, plainName = null;
+		File directory = null;
+		int journalSize = JOURNAL_SIZE;
+		Journal.Overflow journalOverflow = Journal.Overflow.REJECT;
+		granularity = 0;
+		plainBuffer = null;
+		Columns columns = new Columns(), headers = null;
+		String tableName = null, headerName = null;
+		headerTable = null;
+		HEADER = null;
+		deleteHeader = null;
+		payloadTable = null;
+		payloads = null;
 		try {
 			Map<String, String> param = split(uri.getRawQuery());
 			for (Entry<String, String> entry : param.entrySet()) {
@@ -128,7 +476,7 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 					if (connectionString.startsWith(JDBC_PREFIX)) {
 						int columnIndex = connectionString.indexOf(':', JDBC_PREFIX.length());
 						if (columnIndex > 0) {
-							switch (connectionString.substring(JDBC_PREFIX.length(), columnIndex).toLowerCase()) {
+							switch (dialect = connectionString.substring(JDBC_PREFIX.length(), columnIndex).toLowerCase()) {
 							case "mysql":
 								identifierQuoteFormat = "`%s`";
 								Class.forName("com.mysql.jdbc.Driver").newInstance();
@@ -150,22 +498,155 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 				}
 			}
 
-			int index = 0;
+			boolean binary = false;
+			String epcFormat = param.get("epcFormat");
+			if (epcFormat != null) {
+				switch (epcFormat) {
+				case "text":
+					break;
+				case "binary":
+					binary = true;
+					break;
+				default:
+					throw new InvalidURIException("Value '" + epcFormat + "' is invalid for field 'epcFormat'");
+				}
+			}
+
+			boolean upsert = false, aggregate = false;
+			String mode = param.get("mode");
+			if (mode != null) {
+				switch (mode) {
+				case "append":
+					break;
+				case "upsert":
+					upsert = true;
+					break;
+				case "rollup":
+					aggregate = true;
+					break;
+				default:
+					throw new InvalidURIException("Value '" + mode + "' is invalid for field 'mode'");
+				}
+			}
+			// the key column of upsert mode must be indexable
+			String epcType = upsert || aggregate ? "VARCHAR(255)" : "TEXT";
+
+			String schema = param.get("schema");
+			if (schema != null) {
+				switch (schema) {
+				case "flat":
+					break;
+				case "normalized":
+					headers = new Columns();
+					columns.add("schema", HEADER_ID, "BIGINT", Types.BIGINT);
+					break;
+				default:
+					throw new InvalidURIException("Value '" + schema + "' is invalid for field 'schema'");
+				}
+			}
+			if (compressor != null)
+				compressor.close();
+			compressor = null;
+			plainTypes = PLAIN_TYPES;
+			plainProcessor = null;
+			rawColumn = null;
+			String plainCompression = param.get("plainCompression");
+			if (plainCompression != null) {
+				Compressor.Format format = Compressor.Format.parse(plainCompression);
+				if (format == null)
+					throw new InvalidURIException("Value '" + plainCompression + "' is invalid for field 'plainCompression'");
+				compressor = new Compressor(format);
+				plainTypes = COMPRESSED_PLAIN_TYPES;
+				plainProcessor = inflate;
+			}
+			json = false;
+			encoder = null;
+			String plainFormat = param.get("plainFormat");
+			if (plainFormat != null) {
+				switch (plainFormat) {
+				case "xml":
+					break;
+				case "json":
+					json = true;
+					break;
+				case "fastinfoset":
+					if (compressor != null)
+						throw new InvalidURIException("Value '" + plainFormat + "' of field 'plainFormat' can't be compressed");
+					try {
+						Class.forName(FastInfosetEncoder.SERIALIZER);
+					} catch (ClassNotFoundException e) {
+						throw new InvalidURIException("Value '" + plainFormat + "' of field 'plainFormat' requires the Fast Infoset library");
+					}
+					encoder = new FastInfosetEncoder();
+					plainTypes = COMPRESSED_PLAIN_TYPES;
+					plainProcessor = decode;
+					break;
+				default:
+					throw new InvalidURIException("Value '" + plainFormat + "' is invalid for field 'plainFormat'");
+				}
+			}
+			String plainType = compressor != null || encoder != null ? blobType() : "TEXT";
+			payloadTypes = null;
+			String payloadName = param.get("payloadTable");
+			if (payloadName != null) {
+				// the plain column references the payload by its hash
+				payloadTypes = new int[] { Types.VARCHAR, plainTypes[0] };
+				plainTypes = PAYLOAD_PLAIN_TYPES;
+			}
+
+			// the report level columns go to the header table in normalized mode
+			Columns reportColumns = headers != null ? headers : columns;
+
 			for (Entry<String, String> entry : param.entrySet()) {
 				switch (entry.getKey()) {
 				case "connection":
+				case "epcFormat":
+				case "schema":
+				case "mode":
+				case "plainCompression":
+				case "plainFormat":
+					break;
+				case "payloadTable":
+					match(entry);
+					break;
+				case "payloadCache":
+					if ((payloadCache = parse(entry)) == 0)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "plainExport":
+					switch (entry.getValue()) {
+					case "xml":
+						break;
+					case "base64":
+						if (compressor != null || encoder != null)
+							plainProcessor = base64;
+						break;
+					default:
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					}
 					break;
 				case "table":
 					if (match(entry)) {
+						tableName = entry.getValue();
 						table = String.format(identifierQuoteFormat, entry.getValue());
 					}
 					break;
+				case "headerTable":
+					if (match(entry)) {
+						headerName = entry.getValue();
+					}
+					break;
 				case "plain":
 					if (match(entry)) {
-						plain = String.format(identifierQuoteFormat, entry.getValue());
-						types.append(",");
-						types.append(plain);
-						types.append(" TEXT");
+						plainName = entry.getValue();
+						plain = String.format(identifierQuoteFormat, plainName);
+						columns.definitions.append(",");
+						columns.definitions.append(plain);
+						columns.definitions.append(" ").append(payloadTypes != null ? "VARCHAR(" + Payloads.HASH_LENGTH + ")" : plainType);
+						if (payloadTypes != null)
+							for (int i = 0; i < CYCLE_COLUMNS.length; i++)
+								columns.definitions.append(',').append(String.format(identifierQuoteFormat, CYCLE_COLUMNS[i])).append(' ')
+										.append(CYCLE_DEFINITIONS[i]);
 					}
 					break;
 				case "storage":
@@ -182,211 +663,185 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 				case "clear":
 					clear = Boolean.parseBoolean(entry.getValue());
 					break;
-				case "spec":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.spec = ++index;
+				case "batchSize":
+					batchSize = parse(entry);
+					break;
+				case "load":
+					switch (load = entry.getValue()) {
+					case "insert":
+						break;
+					case "copy":
+						if (!"postgresql".equals(dialect))
+							throw new InvalidURIException("Value '" + load + "' of field '" + entry.getKey() + "' requires a PostgreSQL connection");
+						break;
+					case "values":
+						break;
+					case "bulk":
+						if (!"sqlserver".equals(dialect))
+							throw new InvalidURIException("Value '" + load + "' of field '" + entry.getKey() + "' requires a SQL Server connection");
+						break;
+					default:
+						throw new InvalidURIException("Value '" + load + "' is invalid for field '" + entry.getKey() + "'");
 					}
 					break;
-				case "date":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TIMESTAMP");
-						map.date = ++index;
+				case "async":
+					async = Boolean.parseBoolean(entry.getValue());
+					break;
+				case "queueSize":
+					if ((queueSize = parse(entry)) == 0)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "commitRows":
+					commitRows = parse(entry);
+					break;
+				case "commitMillis":
+					commitMillis = parse(entry);
+					break;
+				case "journal":
+					directory = new File(entry.getValue());
+					break;
+				case "journalSize":
+					journalSize = parse(entry);
+					break;
+				case "journalOverflow":
+					if ((journalOverflow = Journal.Overflow.parse(entry.getValue())) == null)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "plainStream":
+					plainBuffer = Boolean.parseBoolean(entry.getValue()) ? new ChunkWriter() : null;
+					break;
+				case "rows":
+					switch (entry.getValue()) {
+					case "report":
+						granularity = Binder.REPORT;
+						break;
+					case "group":
+						granularity = Binder.GROUP;
+						break;
+					case "member":
+						granularity = Binder.ROW;
+						break;
+					default:
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
 					}
 					break;
+				case "rollupMillis":
+					if ((rollupMillis = parse(entry)) == 0)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "dedupWindow":
+					dedupWindow = parse(entry);
+					break;
+				case "poolSize":
+					poolSize = parse(entry);
+					break;
+				case "poolIdleMillis":
+					if ((poolIdleMillis = parse(entry)) == 0)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "breakerFailures":
+					breakerFailures = parse(entry);
+					break;
+				case "backoffMillis":
+					if ((backoffMillis = parse(entry)) == 0)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "backoffMaxMillis":
+					if ((backoffMaxMillis = parse(entry)) == 0)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "dedupSize":
+					if ((dedupSize = parse(entry)) == 0)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "queuePolicy":
+					if ((queuePolicy = AsyncWriter.Policy.parse(entry.getValue())) == null)
+						throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+					break;
+				case "spec":
+					map.spec = reportColumns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
+					break;
+				case "date":
+					map.date = reportColumns.add(entry.getKey(), entry.getValue(), "TIMESTAMP", Types.TIMESTAMP);
+					break;
 				case "totalMilliseconds":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" LONG");
-						map.totalMilliseconds = ++index;
-					}
+					map.totalMilliseconds = reportColumns.add(entry.getKey(), entry.getValue(), "BIGINT", Types.BIGINT);
 					break;
 				case "initiationCondition":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.initiationCondition = ++index;
-					}
+					map.initiationCondition = reportColumns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "initiationTrigger":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.initiationTrigger = ++index;
-					}
+					map.initiationTrigger = reportColumns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "terminationCondition":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.terminationCondition = ++index;
-					}
+					map.terminationCondition = reportColumns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "terminationTrigger":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.terminationTrigger = ++index;
-					}
+					map.terminationTrigger = reportColumns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "report":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.report = ++index;
-					}
+					map.report = reportColumns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				// EC
 				case "group":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.group = ++index;
-					}
+					map.group = columns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "count":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" INT");
-						map.count = ++index;
-					}
+					map.count = columns.add(entry.getKey(), entry.getValue(), "INT", Types.INTEGER);
 					break;
 				case "epc":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.epc = ++index;
-					}
+					map.epc = textual(entry, columns.add(entry.getKey(), entry.getValue(), epcType, Types.VARCHAR), columns);
 					break;
 				case "tag":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.tag = ++index;
-					}
+					map.tag = textual(entry, columns.add(entry.getKey(), entry.getValue(), epcType, Types.VARCHAR), columns);
 					break;
 				case "rawHex":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.rawHex = ++index;
-					}
+					// only raw values can be stored binary, the bit length is kept as prefix
+					map.rawHex = columns.add(entry.getKey(), entry.getValue(), binary ? binaryType() : epcType, Types.VARCHAR);
+					if (columns.types.get(map.rawHex - 1).intValue() == Types.VARBINARY)
+						rawColumn = columns.list.get(map.rawHex - 1);
 					break;
 				case "field":
-					String[] fields = URLDecoder.decode(entry.getValue(), "UTF-8").split(",");
-					
-					if (match(fields, entry.getKey())){
-						for (String field : fields) {
-							map.size++;
-							columns.append(',');
-							columns.append(String.format(identifierQuoteFormat, field));
-							values.append(",?");
-							types.append(",");
-							types.append(String.format(identifierQuoteFormat, field));
-							types.append(" TEXT");
+					// commas within the parentheses of a type belong to the type
+					String[] fields = URLDecoder.decode(entry.getValue(), "UTF-8").split(",(?![^(]*\\))");
+					if (fields.length == 0)
+						throw new InvalidURIException("Value of field '" + entry.getKey() + "' couldn't be empty");
+					// a column bound by field name is given as column=name
+					fieldNames = null;
+					int field = 0;
+					for (int i = 0; i < fields.length; i++) {
+						String column = fields[i];
+						int equals = column.indexOf('=');
+						if (equals >= 0) {
+							String name = column.substring(equals + 1);
+							if (fieldNames == null)
+								fieldNames = new HashMap<>();
+							if (name.isEmpty() || fieldNames.put(name, Integer.valueOf(i)) != null)
+								throw new InvalidURIException("Value '" + fields[i] + "' is invalid for field '" + entry.getKey() + "'");
+							column = column.substring(0, equals);
 						}
-						map.field = ++index;
-						index += map.size - 1;
+						int index = columns.add(entry.getKey(), column, "TEXT", Types.VARCHAR);
+						if (i == 0)
+							field = index;
 					}
+					fieldPositions = new boolean[fields.length];
+					for (int i = 0; i < fields.length; i++)
+						fieldPositions[i] = fieldNames == null || !fieldNames.containsValue(Integer.valueOf(i));
+					map.field = field;
+					map.size = fields.length;
 					break;
 				// CC + PC
 				case "id":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.id = ++index;
-					}
+					map.id = columns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "name":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.name = ++index;
-					}
+					map.name = columns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "status":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.status = ++index;
-					}
+					map.status = columns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				case "data":
-					if (match(entry)) {
-						columns.append(',');
-						columns.append(String.format(identifierQuoteFormat, entry.getValue()));
-						values.append(",?");
-						types.append(",");
-						types.append(String.format(identifierQuoteFormat, entry.getValue()));
-						types.append(" TEXT");
-						map.data = ++index;
-					}
+					map.data = columns.add(entry.getKey(), entry.getValue(), "TEXT", Types.VARCHAR);
 					break;
 				default:
 					throw new InvalidURIException("Parameter '" + (entry.getKey()) + "' is unknown!");
@@ -396,32 +851,129 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 			if (connectionString == null)
 				throw new InvalidURIException("No connection specified");
 
+			pool = poolSize > 0 ? ConnectionPools.INSTANCE.get(connectionString, poolSize, poolIdleMillis) : null;
+
 			if (table == null)
 				throw new InvalidURIException("No table specified");
 
-			if (columns.length() > 0 || plain != null) {
-				if (plain != null)
-					PLAIN = String.format(INSERT, table, plain, "?");
+			if (headers != null) {
+				headerTable = String.format(identifierQuoteFormat, headerName != null ? headerName : tableName + "_header");
+				if (headers.size() > 0)
+					HEADER = String.format(INSERT, headerTable, headers.names.substring(1), headers.parameters.substring(1));
+				else
+					HEADER = String.format("mysql".equals(dialect) ? "INSERT INTO %s () VALUES ()" : "INSERT INTO %s DEFAULT VALUES", headerTable);
+				headerTypes = headers.types();
+				headerValues = new Object[headers.size()];
+				headerPlan = wrap(header(), headerTypes, headers.typed, 0);
+			}
+
+			if (payloadTypes != null) {
+				if (plain == null)
+					throw new InvalidURIException("Field 'payloadTable' requires the 'plain' column");
+				for (String column : CYCLE_COLUMNS)
+					if (columns.list.contains(column))
+						throw new InvalidURIException("Column name '" + column + "' is reserved for field 'payloadTable'");
+				payloadTable = String.format(identifierQuoteFormat, payloadName);
+				// a payload inserted concurrently by another connector is kept
+				PAYLOAD = upsert(payloadTable, Arrays.asList(HASH, plainName), HASH, true);
+				FIND = String.format(EXISTS, payloadTable, String.format(identifierQuoteFormat, HASH));
+				payloads = new Payloads(payloadCache);
+			}
+
+			rollup = null;
+			if (aggregate) {
+				if (map.epc == 0)
+					throw new InvalidURIException("Value 'rollup' of field 'mode' requires the 'epc' column");
+				if (columns.size() > 1 || plain != null)
+					throw new InvalidURIException("Value 'rollup' of field 'mode' only supports the 'epc' column");
+				initRollup(columns);
+			} else if (columns.size() > 0 || plain != null) {
+				if (plain != null) {
+					if (payloads != null) {
+						// the cycle of the reports is stored with the reference to the payload
+						StringBuilder names = new StringBuilder(plain);
+						for (String column : CYCLE_COLUMNS)
+							names.append(',').append(String.format(identifierQuoteFormat, column));
+						PLAIN = String.format(INSERT, table, names, "?,?,?,?,?,?,?");
+					} else {
+						PLAIN = String.format(INSERT, table, plain, "?");
+					}
+				}
 
-				if (columns.length() > 0) {
-					String column = columns.substring(1);
-					TEXT = String.format(INSERT, table, column, values.toString().substring(1));
+				if (columns.size() > 0) {
+					String column = columns.names.substring(1);
+					String values = columns.parameters.substring(1);
+					if (upsert) {
+						if (map.epc == 0)
+							throw new InvalidURIException("Value 'upsert' of field 'mode' requires the 'epc' column");
+						if (load != null && !"insert".equals(load))
+							throw new InvalidURIException("Value 'upsert' of field 'mode' requires insert load");
+						TEXT = upsert(table, columns.list, columns.list.get(map.epc - 1), false);
+						columns.definitions.append(String.format(PRIMARY_KEY, String.format(identifierQuoteFormat, columns.list.get(map.epc - 1))));
+					} else {
+						TEXT = String.format(INSERT, table, column, values);
+					}
+					columnCount = columns.size();
+					columnTypes = columns.types();
+					typed = columns.typed;
+					ecPlan = plan(true);
+					opPlan = plan(false);
+					// the finest level with mapped columns, unless a finer one is requested
+					int level = Binder.REPORT;
+					for (int i = Binder.GROUP; i <= Binder.ROW; i++)
+						if (ecPlan[i].length > 0)
+							level = i;
+					if (granularity > 0 && granularity < level)
+						throw new InvalidURIException("Value '" + param.get("rows") + "' of field 'rows' doesn't support the mapped "
+								+ (level == Binder.ROW ? "member" : "group") + " columns");
+					granularity = Math.max(granularity, level);
+					this.values = new Object[columnCount];
+					if ("copy".equals(load))
+						loader = new CopyLoader(table, column);
+					else if ("bulk".equals(load))
+						loader = bulkLoader(columns.list);
+					else if ("values".equals(load)) {
+						int chunk = Math.max(1, Math.min(MAX_VALUES_ROWS, parameterLimit() / columnCount));
+						StringBuilder rows = new StringBuilder();
+						for (int i = 0; i < chunk; i++) {
+							rows.append("),(");
+							rows.append(values);
+						}
+						loader = new ValuesLoader(String.format(INSERT, table, column, rows.substring(3)), TEXT, chunk, columnTypes);
+					}
 					if (storage != null) {
-						select = String.format(SELECT, column, table);
+						// binary plain output is exported as last column
+						String exported = plainProcessor != null && plain != null && payloads == null ? plain : null;
+						if (exported == null)
+							plainProcessor = null;
+						select = headers != null ? join(headers, columns, exported)
+								: String.format(SELECT, exported != null ? column + "," + exported : column, table);
 						Storage.INSTANCE.put(storage, this);
-						if (clear)
+						if (clear) {
 							delete = String.format(DELETE, table);
+							if (headers != null)
+								deleteHeader = String.format(DELETE, headerTable);
+						}
 					}
 				}
 				if (init) {
 					try {
 						connect();
 
-						String init = String.format(CREATE, table, types.substring(1));
-
 						try (Statement stmt = connection.createStatement()) {
-							stmt.execute(init);
+							if (payloadTable != null)
+								stmt.execute(String.format(CREATE, payloadTable, String.format(identifierQuoteFormat, HASH) + " VARCHAR(" + Payloads.HASH_LENGTH
+										+ ") PRIMARY KEY," + plain + " " + plainType));
+							if (headers != null) {
+								String id = String.format(identifierQuoteFormat, ID);
+								stmt.execute(String.format(CREATE, headerTable, id + " " + identityType() + headers.definitions));
+								columns.definitions.append(String.format(FOREIGN_KEY, String.format(identifierQuoteFormat, HEADER_ID), headerTable, id));
+							}
+							stmt.execute(String.format(CREATE, table, columns.definitions.substring(1)));
 						}
+						// a rollback of the next user must not undo the tables
+						connection.commit();
+						detach();
 					} catch (SQLException e) {
 						throw new InvalidURIException("Failed to initialize table: " + e.getMessage());
 					}
@@ -430,6 +982,64 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 				throw new InvalidURIException("No column nor plain output specified");
 			}
 
+			if (commitMillis > 0) {
+				committer = executor("committer");
+				committer.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							commitGroup();
+						} catch (SQLException e) {
+							log.log(Level.WARNING, "Failed to commit " + rows + " rows", e);
+							discard();
+						}
+					}
+				}, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+			}
+
+			if (rollup != null) {
+				flusher = executor("rollup");
+				flusher.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							flushRollup();
+						} catch (SQLException e) {
+							log.log(Level.WARNING, "Failed to flush rollup of " + rollup.size() + " EPCs", e);
+						}
+					}
+				}, rollupMillis, rollupMillis, TimeUnit.MILLISECONDS);
+			}
+
+			deduplicator = dedupWindow > 0 ? new Deduplicator(dedupWindow, dedupSize) : null;
+			breaker = new CircuitBreaker(breakerFailures, backoffMillis, backoffMaxMillis);
+
+			if (directory != null) {
+				journal = new Journal(directory, journalSize * 1024L * 1024L, journalOverflow);
+				replayer = executor("replayer");
+				replayer.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						replay();
+					}
+				}, 0, REPLAY_MILLIS, TimeUnit.MILLISECONDS);
+			}
+
+			if (async) {
+				asyncWriter = new AsyncWriter(SqlSubscriberConnector.class.getSimpleName() + " " + table, queueSize, queuePolicy, new AsyncWriter.Handler() {
+					@Override
+					public void handle(Object report) throws Exception {
+						if (report instanceof ECReports)
+							write((ECReports) report);
+						else if (report instanceof CCReports)
+							write((CCReports) report);
+						else if (report instanceof PCReports)
+							write((PCReports) report);
+					}
+				});
+				asyncWriter.start();
+			}
+
 		} catch (ALEException e) {
 			throw e;
 		} catch (Exception e) {
@@ -437,386 +1047,1924 @@ public class SqlSubscriberConnector implements SubscriberConnector {
 		}
 	}
 
-	protected void connect() throws SQLException {
-		if (connection == null || connection.isClosed()) {
-			connection = DriverManager.getConnection(connectionString);
-			connection.setAutoCommit(false);
+	/**
+	 * Creates the binders of the configured columns, grouped by level. Values
+	 * which don't apply to the kind of report are bound once per report.
+	 *
+	 * @param ec
+	 *            true for EC reports, false for CC and PC reports
+	 */
+	private Binder[][] plan(boolean ec) {
+		List<Binder> binders = new ArrayList<>();
+		if (HEADER == null) {
+			binders.addAll(header());
+		} else {
+			binders.add(new Binder(1, Binder.REPORT) {
+				@Override
+				Object value(Row row) {
+					return row.header;
+				}
+
+				@Override
+				void bind(PreparedStatement stmt, Row row) throws SQLException {
+					if (row.header != null)
+						stmt.setLong(index, row.header.longValue());
+					else
+						stmt.setNull(index, Types.BIGINT);
+				}
+			});
+		}
+		// EC
+		if (map.group > 0)
+			binders.add(new Binder.Text(map.group, ec ? Binder.GROUP : Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.group;
+				}
+			});
+		if (map.count > 0)
+			binders.add(new Binder(map.count, ec ? Binder.GROUP : Binder.REPORTS) {
+				@Override
+				Object value(Row row) {
+					return row.count;
+				}
+
+				@Override
+				void bind(PreparedStatement stmt, Row row) throws SQLException {
+					stmt.setObject(index, row.count);
+				}
+			});
+		if (map.epc > 0)
+			binders.add(new Binder.Text(map.epc, ec ? Binder.ROW : Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.member != null && row.member.getEpc() != null ? row.member.getEpc().getValue() : null;
+				}
+			});
+		if (map.tag > 0)
+			binders.add(new Binder.Text(map.tag, ec ? Binder.ROW : Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.member != null && row.member.getTag() != null ? row.member.getTag().getValue() : null;
+				}
+			});
+		if (map.rawHex > 0)
+			binders.add(new Binder.Text(map.rawHex, ec ? Binder.ROW : Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.member != null && row.member.getRawHex() != null ? row.member.getRawHex().getValue() : null;
+				}
+			});
+		for (int i = 0; i < map.size; i++) {
+			final int position = i;
+			binders.add(new Binder.Text(map.field + i, ec ? Binder.ROW : Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.fields != null ? row.fields[position] : null;
+				}
+			});
+		}
+		// CC + PC
+		if (map.id > 0)
+			binders.add(new Binder.Text(map.id, ec ? Binder.REPORTS : Binder.GROUP) {
+				@Override
+				String value(Row row) {
+					return row.id;
+				}
+			});
+		if (map.name > 0)
+			binders.add(new Binder.Text(map.name, ec ? Binder.REPORTS : Binder.ROW) {
+				@Override
+				String value(Row row) {
+					return row.name;
+				}
+			});
+		if (map.status > 0)
+			binders.add(new Binder.Text(map.status, ec ? Binder.REPORTS : Binder.ROW) {
+				@Override
+				String value(Row row) {
+					return row.status;
+				}
+			});
+		if (map.data > 0)
+			binders.add(new Binder(map.data, ec ? Binder.REPORTS : Binder.ROW) {
+				@Override
+				Object value(Row row) {
+					return row.data;
+				}
+
+				@Override
+				void bind(PreparedStatement stmt, Row row) throws SQLException {
+					if (row.data instanceof String || row.data == null)
+						stmt.setString(index, (String) row.data);
+					else
+						stmt.setObject(index, row.data);
+				}
+			});
+		Binder[][] plan = new Binder[Binder.LEVELS][];
+		for (int level = 0; level < Binder.LEVELS; level++) {
+			List<Binder> list = new ArrayList<>();
+			for (Binder binder : binders)
+				if (binder.level == level)
+					list.add(binder);
+			plan[level] = wrap(list, columnTypes, typed, rawColumn != null ? map.rawHex : 0);
 		}
+		return plan;
 	}
 
-	private Map<String, String> split(String query) throws UnsupportedEncodingException, InvalidURIException {
-		final Map<String, String> map = new LinkedHashMap<String, String>();
-		if (query != null && query.length() > 0) {
-			for (String pair : query.split("&")) {
-				final int index = pair.indexOf('=');
-				if (index > 0 && index < pair.length() - 1) {
-					map.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
-				} else
-					throw new InvalidURIException("Value of field '" + (index > 0 ? pair.substring(0, index) : pair) + "' couldn't be empty");
-			}
+	/**
+	 * Creates the binders of the report level columns
+	 */
+	private List<Binder> header() {
+		List<Binder> binders = new ArrayList<>();
+		if (map.spec > 0)
+			binders.add(new Binder.Text(map.spec, Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.spec;
+				}
+			});
+		if (map.date > 0)
+			binders.add(new Binder(map.date, Binder.REPORTS) {
+				@Override
+				Object value(Row row) {
+					return row.date;
+				}
+
+				@Override
+				void bind(PreparedStatement stmt, Row row) throws SQLException {
+					stmt.setTimestamp(index, row.date);
+				}
+			});
+		if (map.totalMilliseconds > 0)
+			binders.add(new Binder(map.totalMilliseconds, Binder.REPORTS) {
+				@Override
+				Object value(Row row) {
+					return Long.valueOf(row.totalMilliseconds);
+				}
+
+				@Override
+				void bind(PreparedStatement stmt, Row row) throws SQLException {
+					stmt.setLong(index, row.totalMilliseconds);
+				}
+			});
+		if (map.initiationCondition > 0)
+			binders.add(new Binder.Text(map.initiationCondition, Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.initiationCondition;
+				}
+			});
+		if (map.initiationTrigger > 0)
+			binders.add(new Binder.Text(map.initiationTrigger, Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.initiationTrigger;
+				}
+			});
+		if (map.terminationCondition > 0)
+			binders.add(new Binder.Text(map.terminationCondition, Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.terminationCondition;
+				}
+			});
+		if (map.terminationTrigger > 0)
+			binders.add(new Binder.Text(map.terminationTrigger, Binder.REPORTS) {
+				@Override
+				String value(Row row) {
+					return row.terminationTrigger;
+				}
+			});
+		if (map.report > 0)
+			binders.add(new Binder.Text(map.report, Binder.REPORT) {
+				@Override
+				String value(Row row) {
+					return row.report;
+				}
+			});
+		return binders;
+	}
+
+	/**
+	 * Wraps the binders of columns with overridden type into converting
+	 * binders, the binder of the binary raw EPC column with the given index
+	 * into a raw URN binder
+	 */
+	private Binder[] wrap(List<Binder> binders, int[] types, BitSet typed, int raw) {
+		Binder[] result = new Binder[binders.size()];
+		for (int i = 0; i < result.length; i++) {
+			Binder binder = binders.get(i);
+			if (binder.index == raw)
+				result[i] = new Binder.Raw(binder);
+			else
+				result[i] = typed.get(binder.index - 1) ? new Binder.Typed(binder, types[binder.index - 1]) : binder;
 		}
-		return map;
+		return result;
 	}
 
-	private boolean match(Entry<String, String> entry) throws InvalidURIException {
-		if (identifierPattern == null)
-			return true;
-		Matcher matcher = identifierPattern.matcher(entry.getValue());
-		if (matcher.matches())
-			return true;
-		throw new InvalidURIException("Column name '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+	/**
+	 * @return the select statement joining the member and the header table
+	 */
+	private String join(Columns headers, Columns columns, String plain) {
+		StringBuilder select = new StringBuilder();
+		for (String name : headers.list) {
+			select.append(",h.");
+			select.append(String.format(identifierQuoteFormat, name));
+		}
+		for (String name : columns.list.subList(1, columns.list.size())) {
+			select.append(",m.");
+			select.append(String.format(identifierQuoteFormat, name));
+		}
+		if (plain != null)
+			select.append(",m.").append(plain);
+		return String.format(JOIN, select.substring(1), table, headerTable, String.format(identifierQuoteFormat, HEADER_ID),
+				String.format(identifierQuoteFormat, ID));
 	}
-	
-	private boolean match(String[] values, String key) throws InvalidURIException {
-		for (int i = 0; i < values.length; i++) {
-			Matcher matcher = identifierPattern != null ? identifierPattern.matcher(values[i]) : null;
-			if (matcher == null || matcher.matches()) {
-				if (i == (values.length)-1) {
-					return true;
+
+	/**
+	 * Prepares the statements of the rollup table and creates it if requested
+	 *
+	 * @param columns
+	 *            the columns, holding the EPC column only
+	 */
+	private void initRollup(Columns columns) throws InvalidURIException {
+		rollupType = columns.types()[0];
+		String[] names = new String[ROLLUP_COLUMNS.length + 1];
+		names[0] = String.format(identifierQuoteFormat, columns.list.get(0));
+		for (int i = 0; i < ROLLUP_COLUMNS.length; i++)
+			names[i + 1] = String.format(identifierQuoteFormat, ROLLUP_COLUMNS[i]);
+		StringBuilder column = new StringBuilder(names[0]);
+		for (int i = 1; i < names.length; i++)
+			column.append(',').append(names[i]);
+		rollupUpdate = String.format(ROLLUP_UPDATE, table, names[2], names[3], names[3], names[4], names[0]);
+		rollupInsert = String.format(INSERT, table, column, "?,?,?,?,?");
+		rollup = new Rollup();
+		if (storage != null) {
+			select = String.format(SELECT, column, table);
+			Storage.INSTANCE.put(storage, this);
+			if (clear)
+				delete = String.format(DELETE, table);
+		}
+		if (init) {
+			try {
+				connect();
+
+				try (Statement stmt = connection.createStatement()) {
+					stmt.execute(String.format(CREATE, table, columns.definitions.substring(1) + " PRIMARY KEY," + names[1] + " TIMESTAMP," + names[2]
+							+ " TIMESTAMP," + names[3] + " BIGINT," + names[4] + " TEXT"));
 				}
-				continue;
-			} else {
-				throw new InvalidURIException("Column name '" + values[i] + "' is invalid for field '" + key + "'");
+				// a rollback of the next user must not undo the table
+				connection.commit();
+				detach();
+			} catch (SQLException e) {
+				throw new InvalidURIException("Failed to initialize table: " + e.getMessage());
 			}
 		}
-		throw new InvalidURIException("Value of field '" + key + "' couldn't be empty");		
 	}
 
-	private void plain(Object reports, Marshaller marshaller) throws SQLException, JAXBException, IOException {
-		try (StringWriter writer = new StringWriter()) {
-			marshaller.marshal(reports, NamespaceXMLStreamWriter.create(writer));
-			try (PreparedStatement stmt = connection.prepareStatement(PLAIN)) {
-				stmt.setString(1, writer.toString());
-				stmt.execute();
-			}
+	/**
+	 * Adds the reads of the EC reports to the rollup
+	 */
+	private void rollup(ECReports reports) {
+		if (reports.getReports() != null) {
+			long time = reports.getDate() != null ? reports.getDate().getTime() : System.currentTimeMillis();
+			for (ECReport report : reports.getReports().getReport())
+				for (ECReportGroup group : report.getGroup())
+					if (group.getGroupList() != null && group.getGroupList().getMember() != null)
+						for (ECReportGroupListMember member : group.getGroupList().getMember()) {
+							String epc = epc(member);
+							if (epc != null)
+								rollup.add(epc, group.getGroupName(), time);
+						}
 		}
 	}
 
-	@Override
-	public void send(ECReports reports) throws ImplementationException {
+	/**
+	 * Writes the tallies of the rollup to the rollup table. The read count of
+	 * existing rows is incremented, rows of new EPCs are inserted. If the
+	 * driver doesn't report the update count of each row, the batch is rolled
+	 * back and the rows are updated one by one. Failed tallies are put back to
+	 * the rollup.
+	 */
+	private synchronized void flushRollup() throws SQLException {
+		List<Rollup.Tally> tallies = rollup.drain();
+		if (tallies.isEmpty())
+			return;
 		try {
 			connect();
-
-			if (PLAIN != null) {
-				if (ecMarshaller == null) {
-					JAXBContext context = JAXBContext.newInstance(ECReports.class);
-					ecMarshaller = context.createMarshaller();
+			List<Rollup.Tally> inserts = new ArrayList<>();
+			try (PreparedStatement stmt = connection.prepareStatement(rollupUpdate)) {
+				for (Rollup.Tally tally : tallies) {
+					bindUpdate(stmt, tally);
+					stmt.addBatch();
 				}
-				plain(ecFactory.createECReports(reports), ecMarshaller);
-			}
-
-			if (TEXT != null) {
-				if (reports.getReports() != null)
-					try (PreparedStatement stmt = connection.prepareStatement(TEXT)) {
-						for (ECReport report : reports.getReports().getReport()) {
-							for (ECReportGroup group : report.getGroup()) {
-								if (group.getGroupList().getMember() != null)
-									for (ECReportGroupListMember member : group.getGroupList().getMember()) {
-										if (map.spec > 0)
-											stmt.setString(map.spec, reports.getSpecName());
-
-										if (map.date > 0)
-											stmt.setTimestamp(map.date, new Timestamp(reports.getDate().getTime()));
-
-										if (map.totalMilliseconds > 0) {
-											stmt.setLong(map.totalMilliseconds, reports.getTotalMilliseconds());
-										}
-										if (map.initiationCondition > 0) {
-											stmt.setString(map.initiationCondition, reports.getInitiationCondition());
-										}
-										if (map.initiationTrigger > 0)
-											stmt.setString(map.initiationTrigger, reports.getInitiationTrigger());
-
-										if (map.terminationCondition > 0)
-											stmt.setString(map.terminationCondition, reports.getTerminationCondition());
-
-										if (map.terminationTrigger > 0)
-											stmt.setString(map.terminationTrigger, reports.getTerminationTrigger());
-
-										if (map.report > 0)
-											stmt.setString(map.report, report.getReportName());
-
-										if (map.group > 0)
-											stmt.setString(map.group, group.getGroupName());
-
-										if (map.count > 0)
-											stmt.setObject(map.count, group.getGroupCount() != null ? group.getGroupCount().getCount() : null);
-
-										if (map.epc > 0)
-											stmt.setString(map.epc, member.getEpc() != null ? member.getEpc().getValue() : null);
-
-										if (map.tag > 0)
-											stmt.setString(map.tag, member.getTag() != null ? member.getTag().getValue() : null);
-
-										if (map.rawHex > 0)
-											stmt.setString(map.rawHex, member.getRawHex() != null ? member.getRawHex().getValue() : null);
-
-										if (map.field > 0) {
-											int index = map.field;
-											if (member.getExtension() != null && member.getExtension().getFieldList() != null) {
-												for (ECReportMemberField field : member.getExtension().getFieldList().getField()) {
-													stmt.setString(index++, field.getValue());
-													if (index == map.field + map.size)
-														break;
-												}
-											}
-											for (int i = index; i < map.field + map.size; i++)
-												stmt.setString(i, null);
-										}
-
-										if (map.id > 0) {
-											stmt.setString(map.id, null);
-										}
-										if (map.name > 0) {
-											stmt.setString(map.name, null);
-										}
-										if (map.status > 0) {
-											stmt.setString(map.status, null);
-										}
-										if (map.data > 0) {
-											stmt.setString(map.data, null);
-										}
-
-										stmt.execute();
-										stmt.clearParameters();
-									}
-							}
-						}
+				int[] counts = stmt.executeBatch();
+				boolean known = counts.length == tallies.size();
+				for (int i = 0; known && i < counts.length; i++)
+					known = counts[i] >= 0;
+				if (known) {
+					for (int i = 0; i < counts.length; i++)
+						if (counts[i] == 0)
+							inserts.add(tallies.get(i));
+				} else {
+					// e.g. SUCCESS_NO_INFO, the updated rows are unknown
+					connection.rollback();
+					for (Rollup.Tally tally : tallies) {
+						bindUpdate(stmt, tally);
+						if (stmt.executeUpdate() == 0)
+							inserts.add(tally);
 					}
+				}
+			}
+			if (inserts.size() > 0) {
+				try (PreparedStatement stmt = connection.prepareStatement(rollupInsert)) {
+					for (Rollup.Tally tally : inserts) {
+						stmt.setObject(1, Binder.convert(tally.epc, rollupType), rollupType);
+						stmt.setTimestamp(2, new Timestamp(tally.first));
+						stmt.setTimestamp(3, new Timestamp(tally.last));
+						stmt.setLong(4, tally.count);
+						stmt.setString(5, tally.group);
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				}
 			}
 			connection.commit();
-		} catch (Exception e) {
-			throw new ImplementationException(e);
+			detach();
+		} catch (SQLException e) {
+			rollup.restore(tallies);
+			if (connection != null) {
+				try {
+					connection.rollback();
+				} catch (SQLException x) {
+					log.log(Level.FINE, "Failed to roll back", x);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Binds the tally to the rollup update statement
+	 */
+	private void bindUpdate(PreparedStatement stmt, Rollup.Tally tally) throws SQLException {
+		stmt.setTimestamp(1, new Timestamp(tally.last));
+		stmt.setLong(2, tally.count);
+		stmt.setString(3, tally.group);
+		stmt.setObject(4, Binder.convert(tally.epc, rollupType), rollupType);
+	}
+
+	/**
+	 * Creates the dialect specific statement, which inserts a row or updates
+	 * the row with the same key
+	 *
+	 * @param table
+	 *            the quoted table name
+	 * @param names
+	 *            the column names
+	 * @param key
+	 *            the name of the key column
+	 * @param ignore
+	 *            whether to keep the row with the same key instead of updating
+	 *            it, the values of such rows must be equal
+	 */
+	private String upsert(String table, List<String> names, String key, boolean ignore) {
+		StringBuilder columns = new StringBuilder(), parameters = new StringBuilder(), source = new StringBuilder(), update = new StringBuilder();
+		String k = String.format(identifierQuoteFormat, key);
+		for (String name : names) {
+			String column = String.format(identifierQuoteFormat, name);
+			columns.append(',').append(column);
+			parameters.append(",?");
+			source.append(",s.").append(column);
+			if (!name.equals(key) && !ignore) {
+				switch (dialect != null ? dialect : "") {
+				case "postgresql":
+					update.append(',').append(column).append(" = EXCLUDED.").append(column);
+					break;
+				case "mysql":
+					update.append(',').append(column).append(" = VALUES(").append(column).append(')');
+					break;
+				default:
+					update.append(",d.").append(column).append(" = s.").append(column);
+				}
+			}
+		}
+		String c = columns.substring(1), p = parameters.substring(1);
+		switch (dialect != null ? dialect : "") {
+		case "h2":
+			// H2 always updates, which doesn't change an ignored row with equal values
+			return String.format("MERGE INTO %s (%s) KEY (%s) VALUES (%s)", table, c, k, p);
+		case "postgresql":
+			return String.format(INSERT, table, c, p) + " ON CONFLICT (" + k + ") DO "
+					+ (update.length() > 0 ? "UPDATE SET " + update.substring(1) : "NOTHING");
+		case "mysql":
+			return String.format(INSERT, table, c, p) + " ON DUPLICATE KEY UPDATE " + (update.length() > 0 ? update.substring(1) : k + " = " + k);
+		}
+		// SQL Server and standard SQL
+		return String.format("MERGE INTO %s d USING (VALUES (%s)) s (%s) ON d.%s = s.%s", table, p, c, k, k)
+				+ (update.length() > 0 ? " WHEN MATCHED THEN UPDATE SET " + update.substring(1) : "")
+				+ String.format(" WHEN NOT MATCHED THEN INSERT (%s) VALUES (%s)", c, source.substring(1)) + ("sqlserver".equals(dialect) ? ";" : "");
+	}
+
+	/**
+	 * @return the column type for binary large objects of the database
+	 */
+	private String blobType() {
+		if (dialect != null) {
+			switch (dialect) {
+			case "postgresql":
+				return "BYTEA";
+			case "mysql":
+				return "LONGBLOB";
+			case "sqlserver":
+				return "VARBINARY(MAX)";
+			}
+		}
+		return "BLOB";
+	}
+
+	/**
+	 * @return the bytes of a binary column value or null
+	 */
+	private static byte[] bytes(Object value) throws SQLException {
+		if (value instanceof Blob)
+			return ((Blob) value).getBytes(1, (int) ((Blob) value).length());
+		if (value instanceof byte[])
+			return (byte[]) value;
+		return null;
+	}
+
+	/**
+	 * @return the column type of the generated header id of the database
+	 */
+	private String identityType() {
+		if (dialect != null) {
+			switch (dialect) {
+			case "postgresql":
+				return "BIGSERIAL PRIMARY KEY";
+			case "sqlserver":
+				return "BIGINT IDENTITY PRIMARY KEY";
+			case "mysql":
+			case "h2":
+				return "BIGINT AUTO_INCREMENT PRIMARY KEY";
+			}
+		}
+		return "BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY";
+	}
+
+	/**
+	 * Creates a single threaded executor with a daemon thread
+	 */
+	private ScheduledExecutorService executor(final String name) {
+		return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, SqlSubscriberConnector.class.getSimpleName() + " " + table + " " + name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Creates the bulk copy loader, or falls back to batched inserts if the
+	 * driver doesn't support bulk copy
+	 */
+	private Loader bulkLoader(List<String> names) throws SQLException {
+		try {
+			Class.forName(BulkLoader.BULK_COPY);
+		} catch (ClassNotFoundException e) {
+			log.log(Level.WARNING, "Driver doesn't support bulk copy, using batched inserts");
+			if (batchSize == 0)
+				batchSize = BATCH_SIZE;
+			return null;
+		}
+		return new BulkLoader(table, names, columnTypes);
+	}
+
+	/**
+	 * @return the column type for binary EPC values of the database
+	 */
+	private String binaryType() {
+		if (dialect != null) {
+			switch (dialect) {
+			case "postgresql":
+				return "BYTEA";
+			case "mysql":
+			case "sqlserver":
+				return "VARBINARY(255)";
+			}
+		}
+		return "VARBINARY";
+	}
+
+	/**
+	 * @return the maximum number of bind parameters per statement of the
+	 *         database
+	 */
+	private int parameterLimit() {
+		if (dialect != null) {
+			switch (dialect) {
+			case "sqlserver":
+				return 2000;
+			case "mysql":
+				return 65535;
+			}
+		}
+		return 32767;
+	}
+
+	protected void connect() throws SQLException {
+		if (pool != null) {
+			if (connection == null) {
+				pooled = pool.borrow();
+				connection = pooled.connection;
+			}
+		} else if (connection == null || connection.isClosed()) {
+			connection = DriverManager.getConnection(connectionString);
+			connection.setAutoCommit(false);
+			textStatement = null;
+			plainStatement = null;
+			headerStatement = null;
+		}
+	}
+
+	private Map<String, String> split(String query) throws UnsupportedEncodingException, InvalidURIException {
+		final Map<String, String> map = new LinkedHashMap<String, String>();
+		if (query != null && query.length() > 0) {
+			for (String pair : query.split("&")) {
+				final int index = pair.indexOf('=');
+				if (index > 0 && index < pair.length() - 1) {
+					map.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+				} else
+					throw new InvalidURIException("Value of field '" + (index > 0 ? pair.substring(0, index) : pair) + "' couldn't be empty");
+			}
+		}
+		return map;
+	}
+
+	private int parse(Entry<String, String> entry) throws InvalidURIException {
+		try {
+			int value = Integer.parseInt(entry.getValue());
+			if (value >= 0)
+				return value;
+		} catch (NumberFormatException e) {
+		}
+		throw new InvalidURIException("Value '" + entry.getValue() + "' is invalid for field '" + entry.getKey() + "'");
+	}
+
+	/**
+	 * Rejects a binary column type for EPC values which may be URNs other than
+	 * raw URNs
+	 *
+	 * @return the parameter index of the column
+	 */
+	private int textual(Entry<String, String> entry, int index, Columns columns) throws InvalidURIException {
+		if (columns.types.get(index - 1).intValue() == Types.VARBINARY)
+			throw new InvalidURIException("Binary column type is invalid for field '" + entry.getKey() + "', only field 'rawHex' can be binary");
+		return index;
+	}
+
+	private boolean match(Entry<String, String> entry) throws InvalidURIException {
+		return match(entry.getKey(), entry.getValue());
+	}
+
+	private boolean match(String key, String value) throws InvalidURIException {
+		if (identifierPattern == null)
+			return true;
+		Matcher matcher = identifierPattern.matcher(value);
+		if (matcher.matches())
+			return true;
+		throw new InvalidURIException("Column name '" + value + "' is invalid for field '" + key + "'");
+	}
+	
+	private void plain(Object reports) throws SQLException, JAXBException, IOException {
+		PreparedStatement stmt = preparePlain();
+		if (payloads != null) {
+			ValuesLoader.bind(stmt, 1, cycle(payload(reports), reports), plainTypes);
+		} else if (compressor != null) {
+			compress(reports);
+			stmt.setBinaryStream(1, compressor.input(), compressor.length());
+		} else if (encoder != null) {
+			encode(reports);
+			stmt.setBinaryStream(1, encoder.input(), encoder.length());
+		} else if (plainBuffer != null) {
+			plainBuffer.reset();
+			marshal(reports, plainBuffer);
+			stmt.setCharacterStream(1, plainBuffer.reader(), plainBuffer.length());
+		} else {
+			stmt.setString(1, xml(reports));
+		}
+		stmt.execute();
+		rows++;
+	}
+
+	/**
+	 * @return the row referencing the payload by its hash, with the date,
+	 *         duration, initiation and termination of the cycle of the reports
+	 */
+	private static Object[] cycle(String hash, Object reports) {
+		if (reports instanceof ECReports) {
+			ECReports r = (ECReports) reports;
+			return new Object[] { hash, r.getDate(), Long.valueOf(r.getTotalMilliseconds()), r.getInitiationCondition(), r.getInitiationTrigger(),
+					r.getTerminationCondition(), r.getTerminationTrigger() };
+		}
+		if (reports instanceof CCReports) {
+			CCReports r = (CCReports) reports;
+			return new Object[] { hash, r.getDate(), Long.valueOf(r.getTotalMilliseconds()), r.getInitiationCondition(), r.getInitiationTrigger(),
+					r.getTerminationCondition(), r.getTerminationTrigger() };
+		}
+		PCReports r = (PCReports) reports;
+		return new Object[] { hash, r.getDate(), Long.valueOf(r.getTotalMilliseconds()), r.getInitiationCondition(), r.getInitiationTrigger(),
+				r.getTerminationCondition(), r.getTerminationTrigger() };
+	}
+
+	/**
+	 * Stores the reports without date once in the payload table
+	 *
+	 * @return the hash referencing the payload
+	 */
+	private String payload(Object reports) throws SQLException, JAXBException, IOException {
+		Object payload = serialize(Payloads.undated(reports));
+		String hash = payloads.hash(payload);
+		store(hash, payload);
+		return hash;
+	}
+
+	/**
+	 * Inserts the payload, unless its hash was recently used or is found in
+	 * the payload table
+	 */
+	private void store(String hash, Object payload) throws SQLException {
+		if (payloads.contains(hash))
+			return;
+		PreparedStatement stmt = prepareFind();
+		stmt.setString(1, hash);
+		boolean found;
+		try (ResultSet resultSet = stmt.executeQuery()) {
+			found = resultSet.next();
+		}
+		if (!found) {
+			stmt = preparePayload();
+			ValuesLoader.bind(stmt, 1, new Object[] { hash, payload }, payloadTypes);
+			stmt.execute();
+			rows++;
+		}
+		payloads.add(hash);
+	}
+
+	/**
+	 * Serializes the reports as stored in the plain column
+	 */
+	private Object serialize(Object reports) throws JAXBException, IOException {
+		if (compressor != null) {
+			compress(reports);
+			return compressor.toByteArray();
+		}
+		if (encoder != null) {
+			encode(reports);
+			return encoder.toByteArray();
+		}
+		return xml(reports);
+	}
+
+	/**
+	 * Marshals the reports to text
+	 */
+	private String xml(Object reports) throws JAXBException, IOException {
+		try (StringWriter writer = new StringWriter()) {
+			marshal(reports, writer);
+			return writer.toString();
+		}
+	}
+
+	/**
+	 * Marshals the reports to compressed text
+	 */
+	private void compress(Object reports) throws JAXBException, IOException {
+		Writer writer = compressor.open();
+		marshal(reports, writer);
+		compressor.finish();
+	}
+
+	/**
+	 * Marshals the reports to Fast Infoset
+	 */
+	private void encode(Object reports) throws JAXBException, IOException {
+		marshal(reports, encoder.open());
+		try {
+			encoder.finish();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Marshals the reports to XML or JsonML into the writer
+	 */
+	private void marshal(Object reports, Writer writer) throws JAXBException {
+		marshal(reports, json ? new JsonStreamWriter(writer) : NamespaceXMLStreamWriter.create(writer));
+	}
+
+	/**
+	 * Marshals the reports into the stream writer
+	 */
+	private void marshal(Object reports, XMLStreamWriter stream) throws JAXBException {
+		Object element;
+		Marshaller marshaller;
+		if (reports instanceof ECReports) {
+			if (ecMarshaller == null)
+				ecMarshaller = Marshallers.INSTANCE.acquire(ECReports.class);
+			element = ecFactory.createECReports((ECReports) reports);
+			marshaller = ecMarshaller;
+		} else if (reports instanceof CCReports) {
+			if (ccMarshaller == null)
+				ccMarshaller = Marshallers.INSTANCE.acquire(CCReports.class);
+			element = ccFactory.createCCReports((CCReports) reports);
+			marshaller = ccMarshaller;
+		} else {
+			if (pcMarshaller == null)
+				pcMarshaller = Marshallers.INSTANCE.acquire(PCReports.class);
+			element = pcFactory.createPCReports((PCReports) reports);
+			marshaller = pcMarshaller;
 		}
+		marshaller.marshal(element, stream);
+	}
+
+	/**
+	 * Returns the insert statement, which is prepared once per connection
+	 */
+	private PreparedStatement prepare() throws SQLException {
+		if (textStatement == null)
+			textStatement = prepareStatement(TEXT);
+		return textStatement;
+	}
 
+	/**
+	 * Prepares the statement, a pooled connection reuses its statements
+	 */
+	private PreparedStatement prepareStatement(String sql) throws SQLException {
+		return pooled != null ? pooled.prepare(sql) : connection.prepareStatement(sql);
+	}
+
+	/**
+	 * Returns the plain insert statement, which is prepared once per
+	 * connection
+	 */
+	private PreparedStatement preparePlain() throws SQLException {
+		if (plainStatement == null)
+			plainStatement = prepareStatement(PLAIN);
+		return plainStatement;
+	}
+
+	/**
+	 * Returns the payload insert statement, which is prepared once per
+	 * connection
+	 */
+	private PreparedStatement preparePayload() throws SQLException {
+		if (payloadStatement == null)
+			payloadStatement = prepareStatement(PAYLOAD);
+		return payloadStatement;
+	}
+
+	/**
+	 * Returns the payload lookup statement, which is prepared once per
+	 * connection
+	 */
+	private PreparedStatement prepareFind() throws SQLException {
+		if (findStatement == null)
+			findStatement = prepareStatement(FIND);
+		return findStatement;
+	}
+
+	/**
+	 * Returns the header insert statement, which is prepared once per
+	 * connection
+	 */
+	private PreparedStatement prepareHeader() throws SQLException {
+		if (headerStatement == null)
+			headerStatement = pooled != null ? pooled.prepare(HEADER, Statement.RETURN_GENERATED_KEYS)
+					: connection.prepareStatement(HEADER, Statement.RETURN_GENERATED_KEYS);
+		return headerStatement;
+	}
+
+	/**
+	 * Executes the header insert statement
+	 *
+	 * @return the generated id
+	 */
+	private Long insertHeader(PreparedStatement stmt) throws SQLException {
+		stmt.executeUpdate();
+		rows++;
+		try (ResultSet keys = stmt.getGeneratedKeys()) {
+			if (!keys.next())
+				throw new SQLException("No id generated for header row");
+			return Long.valueOf(keys.getLong(1));
+		}
+	}
+
+	/**
+	 * Inserts the header row of the current report in normalized mode and sets
+	 * its generated id. A running loader is ended before and begun again after
+	 * the insert, as a running COPY occupies the connection.
+	 */
+	private void header(Row row, Loader loader) throws SQLException {
+		if (HEADER != null) {
+			if (loader instanceof JournalLoader) {
+				for (Binder binder : headerPlan)
+					binder.copy(headerValues, row);
+				((JournalLoader) loader).header(headerValues);
+			} else {
+				if (loader != null)
+					rows += loader.end();
+				PreparedStatement stmt = prepareHeader();
+				for (Binder binder : headerPlan)
+					binder.bind(stmt, row);
+				row.header = insertHeader(stmt);
+				if (loader != null)
+					loader.begin(connection);
+			}
+		}
+	}
+
+	/**
+	 * Closes the prepared statements, they will be prepared again on next use.
+	 * The statements of a pooled connection are kept for reuse, their batch
+	 * rows are cleared.
+	 */
+	private void release() {
+		for (PreparedStatement stmt : new PreparedStatement[] { textStatement, plainStatement, headerStatement, payloadStatement, findStatement }) {
+			if (stmt != null) {
+				try {
+					if (pooled == null)
+						stmt.close();
+					else
+						stmt.clearBatch();
+				} catch (SQLException e) {
+					log.log(Level.FINE, "Failed to release statement", e);
+				}
+			}
+		}
+		textStatement = null;
+		plainStatement = null;
+		headerStatement = null;
+		payloadStatement = null;
+		findStatement = null;
+		if (loader != null)
+			loader.cancel();
+	}
+
+	/**
+	 * Executes the current row, or adds it to the batch and executes the batch
+	 * if batch size is reached
+	 */
+	private void execute(PreparedStatement stmt) throws SQLException {
+		if (batchSize > 1) {
+			stmt.addBatch();
+			if (++batch == batchSize)
+				flush();
+		} else {
+			stmt.execute();
+		}
+		rows++;
+	}
+
+	/**
+	 * Executes the pending batch rows
+	 */
+	private void flush() throws SQLException {
+		if (batch > 0) {
+			batch = 0;
+			textStatement.executeBatch();
+		}
+	}
+
+	/**
+	 * Commits the transaction. With group commit the transaction is only
+	 * committed if at least commitRows rows are pending, otherwise the rows are
+	 * committed by the committer after at most commitMillis or on dispose.
+	 */
+	private void commit() throws SQLException {
+		if (commitRows > 0 || commitMillis > 0) {
+			if (commitRows > 0 && rows >= commitRows)
+				commitGroup();
+		} else {
+			connection.commit();
+			rows = 0;
+			confirm();
+			detach();
+		}
+	}
+
+	/**
+	 * Commits all pending rows of the group
+	 */
+	private synchronized void commitGroup() throws SQLException {
+		if (rows > 0) {
+			connection.commit();
+			rows = 0;
+			confirm();
+		}
+		detach();
+	}
+
+	/**
+	 * Confirms the deduplication keys of the committed rows
+	 */
+	private void confirm() {
+		if (deduplicator != null)
+			deduplicator.confirm(0);
+		group.clear();
+		groupKeys = 0;
+	}
+
+	/**
+	 * Keeps the written reports while they are pending in the group, if they
+	 * are journaled on rollback
+	 */
+	private void grouped(Object reports) {
+		if (journal != null && rows > 0) {
+			group.add(new Grouped(reports, reports instanceof ECReports ? duplicates : null));
+			if (deduplicator != null)
+				groupKeys = deduplicator.pending();
+		}
+	}
+
+	/**
+	 * Returns the pooled connection to the pool, unless rows are pending
+	 */
+	private void detach() {
+		if (pooled != null && rows == 0 && batch == 0) {
+			textStatement = null;
+			plainStatement = null;
+			headerStatement = null;
+			payloadStatement = null;
+			findStatement = null;
+			pool.release(pooled);
+			pooled = null;
+			connection = null;
+		}
+	}
+
+	/**
+	 * Borrows a connection for a storage request, which runs outside of the
+	 * writer. Without pool the connection of the connector is used.
+	 *
+	 * @return the borrowed connection or null
+	 */
+	private ConnectionPool.Pooled borrow() throws SQLException {
+		if (pool != null)
+			return pool.borrow();
+		connect();
+		return null;
+	}
+
+	/**
+	 * Ends the transaction of the borrowed connection and returns it to the
+	 * pool
+	 */
+	private void giveBack(ConnectionPool.Pooled borrowed) {
+		if (borrowed != null) {
+			try {
+				borrowed.connection.rollback();
+				pool.release(borrowed);
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Failed to roll back", e);
+				pool.discard(borrowed);
+			}
+		}
+	}
+
+	/**
+	 * Rolls back all pending rows of the group
+	 */
+	private synchronized void discard() {
+		if (rows > 0 && (commitRows > 0 || commitMillis > 0))
+			log.log(Level.WARNING, "Discarding {0} uncommitted rows", Integer.valueOf(rows));
+		// rows left in the batch of a kept statement must not be executed later
+		if (batch > 0)
+			release();
+		batch = 0;
+		// the rows of a failed write must not be committed with the next one
+		try {
+			if (connection != null)
+				connection.rollback();
+		} catch (SQLException e) {
+			log.log(Level.FINE, "Failed to roll back", e);
+		}
+		rows = 0;
+		// stored payloads may have been rolled back
+		if (payloads != null)
+			payloads.clear();
+		// the reports of the group were accepted, they are written later
+		int kept = 0;
+		if (group.size() > 0) {
+			Set<ECReportGroupListMember> current = duplicates;
+			try {
+				for (Grouped grouped : group) {
+					duplicates = grouped.duplicates;
+					append(grouped.reports);
+				}
+				kept = groupKeys;
+				log.log(Level.WARNING, "Journaled {0} reports of the rolled back group", Integer.valueOf(group.size()));
+			} catch (ImplementationException e) {
+				log.log(Level.SEVERE, "Failed to journal the reports of the rolled back group", e);
+			} finally {
+				duplicates = current;
+			}
+			group.clear();
+			groupKeys = 0;
+		}
+		// the rolled back EPCs are accepted again, unless journaled
+		if (deduplicator != null) {
+			deduplicator.revert(kept);
+			deduplicator.confirm(0);
+		}
+	}
+
+	private void enqueue(Object reports) throws ImplementationException {
+		try {
+			asyncWriter.put(reports);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImplementationException(e);
+		} catch (IllegalStateException e) {
+			throw new ImplementationException(e.getMessage());
+		}
 	}
 
 	@Override
-	public void send(CCReports ccReports) throws ImplementationException {
+	public void send(ECReports reports) throws ImplementationException {
+		if (rollup != null)
+			rollup(reports);
+		else if (asyncWriter != null)
+			enqueue(reports);
+		else
+			write(reports);
+	}
+
+	private synchronized void write(ECReports reports) throws ImplementationException {
+		int accepted = deduplicator != null ? deduplicator.pending() : 0;
+		duplicates = deduplicate(reports);
 		try {
-			connect();
+			if (spill(reports, null) || !available(reports)) {
+				// journaled rows are written later
+				if (deduplicator != null)
+					deduplicator.confirm(accepted);
+				return;
+			}
+			for (int attempt = 1;; attempt++) {
+				try {
+					connect();
+
+					if (PLAIN != null)
+						plain(reports);
+
+					if (TEXT != null)
+						load(reports, loader);
+
+					commit();
+					grouped(reports);
+					breaker.success();
+					return;
+				} catch (Exception e) {
+					batch = 0;
+					release();
+					discard();
+					if (retry(e, attempt)) {
+						// the rolled back EPCs were reverted
+						accepted = deduplicator != null ? deduplicator.pending() : 0;
+						duplicates = deduplicate(reports);
+						continue;
+					}
+					failed(e);
+					if (!spill(reports, e))
+						throw new ImplementationException(e);
+					return;
+				}
+			}
+		} catch (ImplementationException e) {
+			// the EPCs of a rejected report are accepted again
+			if (deduplicator != null)
+				deduplicator.revert(accepted);
+			throw e;
+		}
+	}
 
-			if (PLAIN != null) {
-				if (ccMarshaller == null) {
-					JAXBContext context = JAXBContext.newInstance(CCReports.class);
-					ccMarshaller = context.createMarshaller();
+	/**
+	 * Sets the field values of the member to the slots of the field columns.
+	 * Fields are assigned by name if the name is mapped, otherwise by
+	 * position.
+	 */
+	private void fields(Row row, ECReportGroupListMember member) {
+		Arrays.fill(row.fields, null);
+		if (member.getExtension() != null && member.getExtension().getFieldList() != null) {
+			List<ECReportMemberField> fields = member.getExtension().getFieldList().getField();
+			for (int i = 0; i < fields.size(); i++) {
+				ECReportMemberField field = fields.get(i);
+				if (fieldNames != null && field.getName() != null) {
+					Integer slot = fieldNames.get(field.getName());
+					if (slot != null) {
+						row.fields[slot.intValue()] = field.getValue();
+						continue;
+					}
 				}
-				plain(ccFactory.createCCReports(ccReports), ccMarshaller);
+				if (i < fieldPositions.length && fieldPositions[i])
+					row.fields[i] = field.getValue();
 			}
+		}
+	}
 
-			if (TEXT != null) {
-				if (ccReports.getCmdReports() != null)
-					try (PreparedStatement stmt = connection.prepareStatement(TEXT)) {
-						for (CCCmdReport ccCmdreport : ccReports.getCmdReports().getCmdReport()) {
-							if (ccCmdreport.getTagReports() != null)
-								for (CCTagReport ccTagReport : ccCmdreport.getTagReports().getTagReport()) {
-									if (ccTagReport.getOpReports() != null)
-										for (CCOpReport ccOpReport : ccTagReport.getOpReports().getOpReport()) {
-											if (map.spec > 0)
-												stmt.setString(map.spec, ccReports.getSpecName());
-
-											if (map.date > 0)
-												stmt.setTimestamp(map.date, new Timestamp(ccReports.getDate().getTime()));
-
-											if (map.totalMilliseconds > 0)
-												stmt.setLong(map.totalMilliseconds, ccReports.getTotalMilliseconds());
-
-											if (map.initiationCondition > 0)
-												stmt.setString(map.initiationCondition, ccReports.getInitiationCondition());
-
-											if (map.initiationTrigger > 0)
-												stmt.setString(map.initiationTrigger, ccReports.getInitiationTrigger());
-
-											if (map.terminationCondition > 0)
-												stmt.setString(map.terminationCondition, ccReports.getTerminationCondition());
-
-											if (map.terminationTrigger > 0)
-												stmt.setString(map.terminationTrigger, ccReports.getTerminationTrigger());
-
-											if (map.report > 0) {
-												stmt.setString(map.report, ccCmdreport.getCmdSpecName());
-											}
-
-											if (map.group > 0)
-												stmt.setString(map.group, null);
-
-											if (map.count > 0)
-												stmt.setObject(map.count, null);
-
-											if (map.epc > 0)
-												stmt.setString(map.epc, null);
-
-											if (map.tag > 0)
-												stmt.setString(map.tag, null);
-
-											if (map.rawHex > 0)
-												stmt.setString(map.rawHex, null);
-
-											if (map.field > 0)
-												for (int i = 0; i < map.size; i++)
-													stmt.setString(map.field + i, null);
-
-											if (map.id > 0) {
-												stmt.setString(map.id, ccTagReport.getId());
-											}
-											if (map.name > 0) {
-												stmt.setString(map.name, ccOpReport.getOpName());
-											}
-											if (map.status > 0) {
-												stmt.setString(map.status, ccOpReport.getOpStatus());
-											}
-											if (map.data > 0) {
-												stmt.setString(map.data, ccOpReport.getData());
-											}
-
-											stmt.execute();
-											stmt.clearParameters();
-										}
-								}
+	/**
+	 * Determines the members whose (spec, EPC) key was seen within the
+	 * deduplication window. The decision is made once per report, so it
+	 * applies to both the database and the journal.
+	 *
+	 * @return the duplicate members or null
+	 */
+	private Set<ECReportGroupListMember> deduplicate(ECReports reports) {
+		if (deduplicator == null || reports.getReports() == null)
+			return null;
+		long now = reports.getDate() != null ? reports.getDate().getTime() : System.currentTimeMillis();
+		Set<ECReportGroupListMember> duplicates = null;
+		for (ECReport report : reports.getReports().getReport())
+			for (ECReportGroup group : report.getGroup())
+				if (group.getGroupList() != null && group.getGroupList().getMember() != null)
+					for (ECReportGroupListMember member : group.getGroupList().getMember()) {
+						String epc = epc(member);
+						if (epc != null && deduplicator.seen(reports.getSpecName(), epc, now)) {
+							if (duplicates == null)
+								duplicates = Collections.newSetFromMap(new IdentityHashMap<ECReportGroupListMember, Boolean>());
+							duplicates.add(member);
 						}
 					}
+		return duplicates;
+	}
+
+	/**
+	 * @return the EPC, raw hex or tag value identifying the member
+	 */
+	private static String epc(ECReportGroupListMember member) {
+		if (member.getEpc() != null)
+			return member.getEpc().getValue();
+		if (member.getRawHex() != null)
+			return member.getRawHex().getValue();
+		if (member.getTag() != null)
+			return member.getTag().getValue();
+		return null;
+	}
+
+	/**
+	 * Passes the rows of the reports to the loader, or inserts them with the
+	 * prepared insert statement if the loader is null
+	 */
+	private void load(ECReports reports, Loader loader) throws SQLException {
+		if (reports.getReports() != null) {
+			Row row = new Row(reports.getSpecName(), reports.getDate(), reports.getTotalMilliseconds(), reports.getInitiationCondition(),
+					reports.getInitiationTrigger(), reports.getTerminationCondition(), reports.getTerminationTrigger());
+			if (map.size > 0)
+				row.fields = new String[map.size];
+			PreparedStatement stmt = begin(loader);
+			bind(ecPlan[Binder.REPORTS], row, stmt);
+			for (ECReport report : reports.getReports().getReport()) {
+				row.report = report.getReportName();
+				header(row, loader);
+				bind(ecPlan[Binder.REPORT], row, stmt);
+				if (granularity == Binder.REPORT) {
+					add(stmt, loader);
+					continue;
+				}
+				for (ECReportGroup group : report.getGroup()) {
+					row.group = group.getGroupName();
+					row.count = group.getGroupCount() != null ? Integer.valueOf(group.getGroupCount().getCount()) : null;
+					bind(ecPlan[Binder.GROUP], row, stmt);
+					if (granularity == Binder.GROUP) {
+						add(stmt, loader);
+						continue;
+					}
+					if (group.getGroupList().getMember() != null)
+						for (ECReportGroupListMember member : group.getGroupList().getMember()) {
+							if (duplicates != null && duplicates.contains(member))
+								continue;
+							row.member = member;
+							if (row.fields != null)
+								fields(row, member);
+							bind(ecPlan[Binder.ROW], row, stmt);
+							add(stmt, loader);
+						}
+				}
 			}
-			connection.commit();
-		} catch (Exception e) {
-			throw new ImplementationException(e);
+			end(stmt, loader);
+		}
+	}
+
+	@Override
+	public void send(CCReports ccReports) throws ImplementationException {
+		if (rollup != null)
+			return;
+		if (asyncWriter != null)
+			enqueue(ccReports);
+		else
+			write(ccReports);
+	}
+
+	private synchronized void write(CCReports ccReports) throws ImplementationException {
+		if (spill(ccReports, null) || !available(ccReports))
+			return;
+		for (int attempt = 1;; attempt++) {
+			try {
+				connect();
+
+				if (PLAIN != null)
+					plain(ccReports);
+
+				if (TEXT != null)
+					load(ccReports, loader);
+
+				commit();
+				grouped(ccReports);
+				breaker.success();
+				return;
+			} catch (Exception e) {
+				batch = 0;
+				release();
+				discard();
+				if (retry(e, attempt))
+					continue;
+				failed(e);
+				if (!spill(ccReports, e))
+					throw new ImplementationException(e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Passes the rows of the reports to the loader, or inserts them with the
+	 * prepared insert statement if the loader is null
+	 */
+	private void load(CCReports ccReports, Loader loader) throws SQLException {
+		if (ccReports.getCmdReports() != null) {
+			Row row = new Row(ccReports.getSpecName(), ccReports.getDate(), ccReports.getTotalMilliseconds(), ccReports.getInitiationCondition(),
+					ccReports.getInitiationTrigger(), ccReports.getTerminationCondition(), ccReports.getTerminationTrigger());
+			PreparedStatement stmt = begin(loader);
+			bind(opPlan[Binder.REPORTS], row, stmt);
+			for (CCCmdReport ccCmdreport : ccReports.getCmdReports().getCmdReport()) {
+				row.report = ccCmdreport.getCmdSpecName();
+				header(row, loader);
+				bind(opPlan[Binder.REPORT], row, stmt);
+				if (ccCmdreport.getTagReports() != null)
+					for (CCTagReport ccTagReport : ccCmdreport.getTagReports().getTagReport()) {
+						row.id = ccTagReport.getId();
+						bind(opPlan[Binder.GROUP], row, stmt);
+						if (ccTagReport.getOpReports() != null)
+							for (CCOpReport ccOpReport : ccTagReport.getOpReports().getOpReport()) {
+								row.name = ccOpReport.getOpName();
+								row.status = ccOpReport.getOpStatus();
+								row.data = ccOpReport.getData();
+								bind(opPlan[Binder.ROW], row, stmt);
+								add(stmt, loader);
+							}
+					}
+			}
+			end(stmt, loader);
 		}
 	}
 
 	@Override
 	public void send(PCReports pcReports) throws ImplementationException {
-		try {
-			connect();
+		if (rollup != null)
+			return;
+		if (asyncWriter != null)
+			enqueue(pcReports);
+		else
+			write(pcReports);
+	}
 
-			if (PLAIN != null) {
-				if (pcMarshaller == null) {
-					JAXBContext context = JAXBContext.newInstance(PCReports.class);
-					pcMarshaller = context.createMarshaller();
-				}
-				plain(pcFactory.createPCReports(pcReports), pcMarshaller);
+	private synchronized void write(PCReports pcReports) throws ImplementationException {
+		if (spill(pcReports, null) || !available(pcReports))
+			return;
+		for (int attempt = 1;; attempt++) {
+			try {
+				connect();
+
+				if (PLAIN != null)
+					plain(pcReports);
+
+				if (TEXT != null)
+					load(pcReports, loader);
+
+				commit();
+				grouped(pcReports);
+				breaker.success();
+				return;
+			} catch (Exception e) {
+				batch = 0;
+				release();
+				discard();
+				if (retry(e, attempt))
+					continue;
+				failed(e);
+				if (!spill(pcReports, e))
+					throw new ImplementationException(e);
+				return;
 			}
+		}
+	}
 
-			if (TEXT != null) {
-				if (pcReports.getReports() != null)
-					try (PreparedStatement stmt = connection.prepareStatement(TEXT)) {
-						for (PCReport pcReport : pcReports.getReports().getReport()) {
-							if (pcReport.getEventReports() != null)
-								for (PCEventReport pcEventReport : pcReport.getEventReports().getEventReport()) {
-									if (pcEventReport.getOpReports() != null)
-										for (PCOpReport pcOpReport : pcEventReport.getOpReports().getOpReport()) {
-											if (map.spec > 0)
-												stmt.setString(map.spec, pcReports.getSpecName());
+	/**
+	 * Passes the rows of the reports to the loader, or inserts them with the
+	 * prepared insert statement if the loader is null
+	 */
+	private void load(PCReports pcReports, Loader loader) throws SQLException {
+		if (pcReports.getReports() != null) {
+			Row row = new Row(pcReports.getSpecName(), pcReports.getDate(), pcReports.getTotalMilliseconds(), pcReports.getInitiationCondition(),
+					pcReports.getInitiationTrigger(), pcReports.getTerminationCondition(), pcReports.getTerminationTrigger());
+			PreparedStatement stmt = begin(loader);
+			bind(opPlan[Binder.REPORTS], row, stmt);
+			for (PCReport pcReport : pcReports.getReports().getReport()) {
+				row.report = pcReport.getReportName();
+				header(row, loader);
+				bind(opPlan[Binder.REPORT], row, stmt);
+				if (pcReport.getEventReports() != null)
+					for (PCEventReport pcEventReport : pcReport.getEventReports().getEventReport()) {
+						row.id = pcEventReport.getId();
+						bind(opPlan[Binder.GROUP], row, stmt);
+						if (pcEventReport.getOpReports() != null)
+							for (PCOpReport pcOpReport : pcEventReport.getOpReports().getOpReport()) {
+								row.name = pcOpReport.getOpName();
+								row.status = pcOpReport.getOpStatus();
+								row.data = pcOpReport.isState();
+								bind(opPlan[Binder.ROW], row, stmt);
+								add(stmt, loader);
+							}
+					}
+			}
+			end(stmt, loader);
+		}
+	}
 
-											if (map.date > 0)
-												stmt.setTimestamp(map.date, new Timestamp(pcReports.getDate().getTime()));
+	/**
+	 * Begins the rows of a report
+	 *
+	 * @return the prepared insert statement, or null if the rows are passed
+	 *         to the loader
+	 */
+	private PreparedStatement begin(Loader loader) throws SQLException {
+		if (loader != null) {
+			loader.begin(connection);
+			return null;
+		}
+		return prepare();
+	}
 
-											if (map.totalMilliseconds > 0)
-												stmt.setLong(map.totalMilliseconds, pcReports.getTotalMilliseconds());
+	/**
+	 * Binds the values of the binders to the statement parameters, or copies
+	 * them into the row values if the statement is null. Bound values are kept
+	 * for the following rows until they are bound again.
+	 */
+	private void bind(Binder[] binders, Row row, PreparedStatement stmt) throws SQLException {
+		if (stmt != null) {
+			for (Binder binder : binders)
+				binder.bind(stmt, row);
+		} else {
+			for (Binder binder : binders)
+				binder.copy(values, row);
+		}
+	}
 
-											if (map.initiationCondition > 0)
-												stmt.setString(map.initiationCondition, pcReports.getInitiationCondition());
+	/**
+	 * Executes the insert statement, or passes the row values to the loader
+	 */
+	private void add(PreparedStatement stmt, Loader loader) throws SQLException {
+		if (stmt != null)
+			execute(stmt);
+		else
+			loader.add(values);
+	}
 
-											if (map.initiationTrigger > 0)
-												stmt.setString(map.initiationTrigger, pcReports.getInitiationTrigger());
+	private void end(PreparedStatement stmt, Loader loader) throws SQLException {
+		if (stmt != null) {
+			flush();
+			stmt.clearParameters();
+		} else {
+			rows += loader.end();
+		}
+	}
 
-											if (map.terminationCondition > 0)
-												stmt.setString(map.terminationCondition, pcReports.getTerminationCondition());
+	/**
+	 * Appends the rows to the journal
+	 */
+	private class JournalLoader implements Loader {
 
-											if (map.terminationTrigger > 0)
-												stmt.setString(map.terminationTrigger, pcReports.getTerminationTrigger());
+		@Override
+		public void begin(Connection connection) {
+		}
 
-											if (map.report > 0)
-												stmt.setString(map.report, pcReport.getReportName());
+		@Override
+		public void add(Object[] row) throws SQLException {
+			append(TEXT_ROW, row);
+		}
 
-											if (map.group > 0)
-												stmt.setString(map.group, null);
+		/**
+		 * Appends the header row of the following rows
+		 */
+		void header(Object[] row) throws SQLException {
+			append(HEADER_ROW, row);
+		}
 
-											if (map.count > 0)
-												stmt.setObject(map.count, null);
+		@Override
+		public long end() {
+			return 0;
+		}
 
-											if (map.epc > 0)
-												stmt.setString(map.epc, null);
+		@Override
+		public void cancel() {
+		}
 
-											if (map.tag > 0)
-												stmt.setString(map.tag, null);
+		private void append(int statement, Object[] row) throws SQLException {
+			try {
+				journal.append(statement, row);
+			} catch (IOException e) {
+				throw new SQLException(e);
+			}
+		}
+	}
 
-											if (map.rawHex > 0)
-												stmt.setString(map.rawHex, null);
+	/**
+	 * Appends the rows of the reports to the journal. Reports are journaled
+	 * if the database is unreachable, or if the journal still contains rows
+	 * to keep the order of the rows.
+	 *
+	 * @param cause
+	 *            the exception raised while writing the reports or null
+	 * @return true if the reports were journaled
+	 */
+	private boolean spill(Object reports, Exception cause) throws ImplementationException {
+		if (journal == null || (cause == null ? journal.isEmpty() : !unreachable(cause)))
+			return false;
+		append(reports);
+		if (cause != null)
+			log.log(Level.WARNING, "Database is unreachable, journaling reports: {0}", cause.getMessage());
+		return true;
+	}
 
-											if (map.field > 0)
-												for (int i = 0; i < map.size; i++)
-													stmt.setString(map.field + i, null);
+	/**
+	 * Appends the rows of the reports to the journal
+	 */
+	private void append(Object reports) throws ImplementationException {
+		try {
+			if (PLAIN != null)
+				if (payloads != null) {
+					Object payload = serialize(Payloads.undated(reports));
+					String hash = payloads.hash(payload);
+					if (!payloads.contains(hash))
+						journal.append(PAYLOAD_ROW, new Object[] { hash, payload });
+					journal.append(PLAIN_ROW, cycle(hash, reports));
+				} else {
+					journal.append(PLAIN_ROW, new Object[] { serialize(reports) });
+				}
+			if (TEXT != null) {
+				Loader target = new JournalLoader();
+				if (reports instanceof ECReports)
+					load((ECReports) reports, target);
+				else if (reports instanceof CCReports)
+					load((CCReports) reports, target);
+				else if (reports instanceof PCReports)
+					load((PCReports) reports, target);
+			}
+			journal.sync();
+		} catch (Exception e) {
+			throw new ImplementationException(e);
+		}
+	}
 
-											if (map.id > 0)
-												stmt.setString(map.id, pcEventReport.getId());
+	/**
+	 * Checks the circuit breaker. While it is open the reports are journaled,
+	 * or rejected if there is no journal, without waiting for the database.
+	 *
+	 * @return true if the reports may be written
+	 */
+	private boolean available(Object reports) throws ImplementationException {
+		long now = System.currentTimeMillis();
+		if (breaker.allow(now))
+			return true;
+		if (journal == null)
+			throw new ImplementationException("Database is unavailable, retrying in " + breaker.remaining(now) + " ms");
+		append(reports);
+		return false;
+	}
+
+	/**
+	 * Classifies the failure of a write. A transient failure closes the
+	 * connection, which is reopened by the next attempt, and counts for the
+	 * circuit breaker. Other failures leave the connection open, a failure
+	 * raised by the database resets the circuit breaker.
+	 */
+	private void failed(Exception e) {
+		if (isTransient(e)) {
+			disconnect();
+			long now = System.currentTimeMillis();
+			if (breaker.failure(now))
+				log.log(Level.WARNING, "Database is unavailable, retrying in {0,number,#} ms: {1}",
+						new Object[] { Long.valueOf(breaker.remaining(now)), e.getMessage() });
+		} else if (responded(e)) {
+			breaker.success();
+		} else {
+			breaker.abort();
+		}
+	}
+
+	/**
+	 * Checks whether a failed transaction is retried, which applies to
+	 * transactions rolled back by the database, e.g. due to a deadlock or
+	 * serialization failure. The connection is kept.
+	 *
+	 * @return true if the transaction should be retried
+	 */
+	private boolean retry(Exception e, int attempt) {
+		if (attempt >= TRANSACTION_RETRIES || !isRollback(e))
+			return false;
+		log.log(Level.FINE, "Retrying rolled back transaction", e);
+		return true;
+	}
 
-											if (map.name > 0)
-												stmt.setString(map.name, pcOpReport.getOpName());
+	/**
+	 * @return true if the exception or one of its causes is a failure which
+	 *         may succeed later
+	 */
+	static boolean isTransient(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (isRollback(t))
+				continue;
+			if (t instanceof SQLTransientException || t instanceof SQLRecoverableException || t instanceof SQLNonTransientConnectionException)
+				return true;
+			if (t instanceof SQLException && ((SQLException) t).getSQLState() != null)
+				for (String state : TRANSIENT_STATES)
+					if (((SQLException) t).getSQLState().startsWith(state))
+						return true;
+		}
+		return false;
+	}
 
-											if (map.status > 0)
-												stmt.setString(map.status, pcOpReport.getOpStatus());
+	/**
+	 * @return true if the exception or one of its causes is a rolled back
+	 *         transaction
+	 */
+	static boolean isRollback(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof SQLTransactionRollbackException)
+				return true;
+			if (t instanceof SQLException && ((SQLException) t).getSQLState() != null && ((SQLException) t).getSQLState().startsWith(ROLLBACK_STATE))
+				return true;
+		}
+		return false;
+	}
 
-											if (map.data > 0)
-												stmt.setObject(map.data, pcOpReport.isState());
+	/**
+	 * @return true if the exception or one of its causes was raised by the
+	 *         database
+	 */
+	static boolean responded(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause())
+			if (t instanceof SQLException)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Closes the connection, a pooled connection is discarded
+	 */
+	private void disconnect() {
+		if (connection != null) {
+			if (pooled != null) {
+				pool.discard(pooled);
+				pooled = null;
+			} else {
+				try {
+					connection.close();
+				} catch (SQLException x) {
+					log.log(Level.FINE, "Failed to close connection", x);
+				}
+			}
+			connection = null;
+		}
+	}
+
+	/**
+	 * Checks whether the exception was caused by an unreachable database. The
+	 * connection is closed if the database is unreachable.
+	 */
+	private boolean unreachable(Exception e) {
+		boolean unreachable = false;
+		for (Throwable t = e; t != null && !unreachable; t = t.getCause())
+			if (t instanceof SQLException && ((SQLException) t).getSQLState() != null)
+				unreachable = ((SQLException) t).getSQLState().startsWith("08");
+		if (!unreachable) {
+			try {
+				unreachable = connection == null || !connection.isValid(VALID_TIMEOUT);
+			} catch (SQLException x) {
+				unreachable = true;
+			}
+		}
+		if (unreachable)
+			disconnect();
+		return unreachable;
+	}
 
-											stmt.execute();
-											stmt.clearParameters();
-										}
-								}
+	/**
+	 * Writes the journaled rows to the database. A rolled back chunk is
+	 * retried. If a chunk of rows fails otherwise while the database is
+	 * reachable, the rows are written one by one and the failing row is
+	 * dropped.
+	 */
+	private synchronized void replay() {
+		int max = REPLAY_ROWS, attempt = 1;
+		long count = 0;
+		// a retried chunk belongs to the attempt allowed by the breaker
+		while (!journal.isEmpty() && (attempt > 1 || breaker.allow(System.currentTimeMillis()))) {
+			// rows following a committed header row reference its persisted id
+			lastHeader = journal.mark() > 0 ? Long.valueOf(journal.mark()) : null;
+			try {
+				connect();
+				final boolean[] pending = new boolean[2];
+				int n = journal.replay(new Journal.Replay() {
+					@Override
+					public void row(int statement, Object[] row) throws SQLException {
+						if (statement == HEADER_ROW) {
+							// the following rows reference the generated id
+							PreparedStatement stmt = prepareHeader();
+							ValuesLoader.bind(stmt, 1, row, headerTypes);
+							lastHeader = insertHeader(stmt);
+							return;
+						}
+						if (statement == PAYLOAD_ROW) {
+							store((String) row[0], row[1]);
+							return;
 						}
+						PreparedStatement stmt = statement == PLAIN_ROW ? preparePlain() : prepare();
+						if (statement == TEXT_ROW && HEADER != null)
+							row[0] = lastHeader;
+						ValuesLoader.bind(stmt, 1, row, statement == PLAIN_ROW ? plainTypes : columnTypes);
+						stmt.addBatch();
+						pending[statement] = true;
 					}
+				}, max);
+				if (pending[TEXT_ROW])
+					textStatement.executeBatch();
+				if (pending[PLAIN_ROW])
+					plainStatement.executeBatch();
+				connection.commit();
+				rows = 0;
+				journal.commit(lastHeader != null ? lastHeader.longValue() : 0);
+				breaker.success();
+				count += n;
+				max = REPLAY_ROWS;
+				attempt = 1;
+			} catch (Exception e) {
+				journal.reset();
+				release();
+				if (payloads != null)
+					payloads.clear();
+				if (connection != null) {
+					try {
+						connection.rollback();
+					} catch (SQLException x) {
+						log.log(Level.FINE, "Failed to roll back", x);
+					}
+				}
+				if (unreachable(e) || isTransient(e)) {
+					// the rows are kept and replayed later
+					disconnect();
+					breaker.failure(System.currentTimeMillis());
+					log.log(Level.FINE, "Database is still unreachable", e);
+					break;
+				}
+				if (retry(e, attempt++))
+					continue;
+				attempt = 1;
+				if (responded(e))
+					breaker.success();
+				else
+					breaker.abort();
+				if (max > 1) {
+					max = 1;
+					continue;
+				}
+				log.log(Level.SEVERE, "Dropping journaled row", e);
+				lastHeader = journal.mark() > 0 ? Long.valueOf(journal.mark()) : null;
+				try {
+					journal.replay(new Journal.Replay() {
+						@Override
+						public void row(int statement, Object[] row) {
+							if (statement == HEADER_ROW)
+								lastHeader = null;
+						}
+					}, 1);
+				} catch (Exception x) {
+					log.log(Level.SEVERE, "Failed to skip journaled row", x);
+					break;
+				}
+				journal.commit(lastHeader != null ? lastHeader.longValue() : 0);
+				max = REPLAY_ROWS;
 			}
-			connection.commit();
-		} catch (Exception e) {
-			throw new ImplementationException(e);
 		}
+		detach();
+		if (count > 0)
+			log.log(Level.INFO, "Replayed {0} journaled rows", Long.valueOf(count));
 	}
 
 	public void marshal(Writer writer, int limit, int offset) throws SQLException, IOException {
-		connect();
-
-		try (PreparedStatement stmt = connection.prepareStatement(select)) {
-			stmt.setInt(1, limit);
-			stmt.setInt(2, offset);
-			try (ResultSet rs = stmt.executeQuery()) {
-				ResultSetMetaData data = rs.getMetaData();
-				CellProcessor[] processors = new CellProcessor[data.getColumnCount()];
-				for (int i = 0; i < data.getColumnCount(); i++)
-					if (data.getColumnType(i + 1) == Types.CLOB)
-						processors[i] = processor;
-				try (CsvResultSetWriter csv = new CsvResultSetWriter(writer, CsvPreference.EXCEL_PREFERENCE)) {
-					csv.write(rs, processors);
-					csv.flush();
+		ConnectionPool.Pooled borrowed = borrow();
+		try {
+			Connection connection = borrowed != null ? borrowed.connection : this.connection;
+			try (PreparedStatement stmt = connection.prepareStatement(select)) {
+				stmt.setInt(1, limit);
+				stmt.setInt(2, offset);
+				try (ResultSet rs = stmt.executeQuery()) {
+					ResultSetMetaData data = rs.getMetaData();
+					CellProcessor[] processors = new CellProcessor[data.getColumnCount()];
+					for (int i = 0; i < data.getColumnCount(); i++)
+						switch (data.getColumnType(i + 1)) {
+						case Types.CLOB:
+							processors[i] = processor;
+							break;
+						case Types.BINARY:
+						case Types.VARBINARY:
+						case Types.LONGVARBINARY:
+						case Types.BLOB:
+							processors[i] = data.getColumnName(i + 1).equalsIgnoreCase(rawColumn) ? raw : hex;
+							break;
+						}
+					if (plainProcessor != null)
+						processors[processors.length - 1] = plainProcessor;
+					try (CsvResultSetWriter csv = new CsvResultSetWriter(writer, CsvPreference.EXCEL_PREFERENCE)) {
+						csv.write(rs, processors);
+						csv.flush();
+					}
 				}
 			}
+		} finally {
+			giveBack(borrowed);
 		}
 	}
 
 	public int clear() throws SQLException {
 		if (clear) {
-			connect();
-
-			try (Statement stmt = connection.createStatement()) {
-				return stmt.executeUpdate(delete);
+			ConnectionPool.Pooled borrowed = borrow();
+			try (Statement stmt = (borrowed != null ? borrowed.connection : connection).createStatement()) {
+				int count = stmt.executeUpdate(delete);
+				if (deleteHeader != null)
+					stmt.executeUpdate(deleteHeader);
+				if (borrowed != null)
+					borrowed.connection.commit();
+				return count;
+			} finally {
+				giveBack(borrowed);
 			}
 		}
 		return -1;
 	}
 
+	/**
+	 * @return the number of reports discarded due to a full queue in
+	 *         asynchronous mode
+	 */
+	public long getDropped() {
+		return asyncWriter != null ? asyncWriter.getDropped() : 0;
+	}
+
+	/**
+	 * @return the number of reports which failed to be written in
+	 *         asynchronous mode
+	 */
+	public long getFailed() {
+		return asyncWriter != null ? asyncWriter.getFailed() : 0;
+	}
+
+	/**
+	 * @return the number of EC report members dropped as duplicates
+	 */
+	public long getDedupHits() {
+		return deduplicator != null ? deduplicator.getHits() : 0;
+	}
+
+	/**
+	 * @return the number of EC report members passed by deduplication
+	 */
+	public long getDedupMisses() {
+		return deduplicator != null ? deduplicator.getMisses() : 0;
+	}
+
 	@Override
 	public void dispose() throws ImplementationException {
 
+		if (asyncWriter != null) {
+			try {
+				asyncWriter.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			asyncWriter = null;
+		}
+
+		if (replayer != null) {
+			replayer.shutdown();
+			try {
+				replayer.awaitTermination(REPLAY_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			replayer = null;
+		}
+
+		if (flusher != null) {
+			flusher.shutdown();
+			try {
+				flusher.awaitTermination(rollupMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flusher = null;
+		}
+
+		try {
+			if (rollup != null) {
+				try {
+					flushRollup();
+				} catch (SQLException e) {
+					throw new ImplementationException("Failed to flush rollup: " + e.getMessage());
+				}
+			}
+
+			if (committer != null) {
+				committer.shutdown();
+				try {
+					committer.awaitTermination(commitMillis, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				committer = null;
+			}
+
+			try {
+				commitGroup();
+			} catch (SQLException e) {
+				discard();
+				throw new ImplementationException("Failed to commit: " + e.getMessage());
+			}
+		} finally {
+			// a rolled back group is journaled first
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+
+			if (compressor != null) {
+				compressor.close();
+				compressor = null;
+			}
+			encoder = null;
+
+			Marshallers.INSTANCE.release(ECReports.class, ecMarshaller);
+			Marshallers.INSTANCE.release(CCReports.class, ccMarshaller);
+			Marshallers.INSTANCE.release(PCReports.class, pcMarshaller);
+			ecMarshaller = null;
+			ccMarshaller = null;
+			pcMarshaller = null;
+		}
+
 		if (drop) {
 			try {
 				connect();
 
 				try (Statement statement = connection.createStatement()) {
 					statement.execute(String.format(DROP, table));
+					if (headerTable != null)
+						statement.execute(String.format(DROP, headerTable));
+					if (payloadTable != null)
+						statement.execute(String.format(DROP, payloadTable));
 				}
+				connection.commit();
 			} catch (SQLException e) {
 				throw new ImplementationException("Failed to drop table: " + e.getMessage());
 			}
 		}
 
+		release();
+
+		if (pooled != null) {
+			try {
+				connection.rollback();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Failed to roll back", e);
+			}
+			pool.release(pooled);
+			pooled = null;
+			connection = null;
+		}
+
 		if (connection != null) {
 			try {
 
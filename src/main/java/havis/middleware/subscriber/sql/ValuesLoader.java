@@ -0,0 +1,127 @@
+package havis.middleware.subscriber.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inserts rows with statements holding multiple rows in the VALUES list. Full
+ * chunks are inserted with the multi row statement, the remaining rows are
+ * inserted as batch of the single row statement.
+ */
+class ValuesLoader implements Loader {
+
+	private final static Logger log = Logger.getLogger(ValuesLoader.class.getName());
+
+	private final String multi, single;
+	private final int chunk;
+	private final int[] types;
+
+	private Connection connection;
+	private PreparedStatement multiStatement, singleStatement;
+	private Object[][] rows;
+	private int pending;
+	private long count;
+
+	/**
+	 * @param multi
+	 *            the insert statement for a chunk of rows
+	 * @param single
+	 *            the insert statement for a single row
+	 * @param chunk
+	 *            the number of rows of the multi row statement
+	 * @param types
+	 *            the SQL types of the columns
+	 */
+	ValuesLoader(String multi, String single, int chunk, int[] types) {
+		this.multi = multi;
+		this.single = single;
+		this.chunk = chunk;
+		this.types = types;
+		this.rows = new Object[chunk][types.length];
+	}
+
+	int getChunk() {
+		return chunk;
+	}
+
+	@Override
+	public void begin(Connection connection) throws SQLException {
+		if (this.connection != connection) {
+			cancel();
+			this.connection = connection;
+		}
+		pending = 0;
+		count = 0;
+	}
+
+	@Override
+	public void add(Object[] row) throws SQLException {
+		System.arraycopy(row, 0, rows[pending], 0, types.length);
+		if (++pending == chunk) {
+			if (multiStatement == null)
+				multiStatement = connection.prepareStatement(multi);
+			int index = 1;
+			for (int i = 0; i < chunk; i++)
+				index = bind(multiStatement, index, rows[i], types);
+			multiStatement.executeUpdate();
+			count += chunk;
+			pending = 0;
+		}
+	}
+
+	@Override
+	public long end() throws SQLException {
+		if (pending > 0) {
+			if (singleStatement == null)
+				singleStatement = connection.prepareStatement(single);
+			for (int i = 0; i < pending; i++) {
+				bind(singleStatement, 1, rows[i], types);
+				singleStatement.addBatch();
+			}
+			singleStatement.executeBatch();
+			count += pending;
+			pending = 0;
+		}
+		return count;
+	}
+
+	@Override
+	public void cancel() {
+		for (PreparedStatement stmt : new PreparedStatement[] { multiStatement, singleStatement }) {
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					log.log(Level.FINE, "Failed to close statement", e);
+				}
+			}
+		}
+		multiStatement = null;
+		singleStatement = null;
+		connection = null;
+		pending = 0;
+	}
+
+	/**
+	 * Binds the values of the row starting at the parameter index
+	 *
+	 * @return the index of the next parameter
+	 */
+	static int bind(PreparedStatement stmt, int index, Object[] row, int[] types) throws SQLException {
+		for (int i = 0; i < types.length; i++, index++) {
+			Object value = row[i];
+			if (value == null)
+				stmt.setNull(index, types[i]);
+			else if (value.getClass() == Date.class)
+				stmt.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+			else
+				stmt.setObject(index, value, types[i]);
+		}
+		return index;
+	}
+}
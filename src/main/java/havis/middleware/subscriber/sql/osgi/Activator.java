@@ -1,6 +1,8 @@
 package havis.middleware.subscriber.sql.osgi;
 
 import havis.middleware.ale.subscriber.SubscriberConnector;
+import havis.middleware.subscriber.sql.ConnectionPools;
+import havis.middleware.subscriber.sql.Marshallers;
 import havis.middleware.subscriber.sql.SqlSubscriberConnector;
 import havis.middleware.subscriber.sql.rest.RESTApplication;
 
@@ -12,6 +14,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ws.rs.core.Application;
+import javax.xml.bind.JAXBException;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
@@ -33,6 +36,12 @@ public class Activator implements BundleActivator {
 		Dictionary<String, String> properties = new Hashtable<>();
 		properties.put(NAME, VALUE);
 
+		try {
+			Marshallers.INSTANCE.init();
+		} catch (JAXBException e) {
+			log.log(Level.WARNING, "Failed to create JAXB contexts", e);
+		}
+
 		log.log(Level.FINE, "Register prototype service factory {0} (''{1}'': ''{2}'')", new Object[] { SqlSubscriberConnector.class.getName(), NAME, VALUE });
 		serviceRegistration.add(context.registerService(SubscriberConnector.class.getName(), new PrototypeServiceFactory<SubscriberConnector>() {
 			@Override
@@ -54,5 +63,7 @@ public class Activator implements BundleActivator {
 		for (ServiceRegistration<?> serviceRegistration : this.serviceRegistration)
 			serviceRegistration.unregister();
 		serviceRegistration.clear();
+		Marshallers.INSTANCE.clear();
+		ConnectionPools.INSTANCE.clear();
 	}
 }
\ No newline at end of file
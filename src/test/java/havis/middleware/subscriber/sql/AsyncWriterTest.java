@@ -0,0 +1,129 @@
+package havis.middleware.subscriber.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncWriterTest {
+
+	@Test
+	public void parse() {
+		Assert.assertEquals(AsyncWriter.Policy.BLOCK, AsyncWriter.Policy.parse("block"));
+		Assert.assertEquals(AsyncWriter.Policy.DROP_NEWEST, AsyncWriter.Policy.parse("dropNewest"));
+		Assert.assertEquals(AsyncWriter.Policy.DROP_OLDEST, AsyncWriter.Policy.parse("dropOldest"));
+		Assert.assertNull(AsyncWriter.Policy.parse("unknown"));
+	}
+
+	@Test
+	public void writeAll() throws InterruptedException {
+		final List<Object> reports = new ArrayList<>();
+		AsyncWriter writer = new AsyncWriter("test", 2, AsyncWriter.Policy.BLOCK, new AsyncWriter.Handler() {
+			@Override
+			public void handle(Object report) throws Exception {
+				reports.add(report);
+				if ("fail".equals(report))
+					throw new Exception();
+			}
+		});
+		writer.start();
+		for (int i = 0; i < 10; i++)
+			writer.put(Integer.valueOf(i));
+		writer.put("fail");
+		writer.stop();
+
+		Assert.assertEquals(11, reports.size());
+		for (int i = 0; i < 10; i++)
+			Assert.assertEquals(Integer.valueOf(i), reports.get(i));
+		Assert.assertEquals(0, writer.getDropped());
+		Assert.assertEquals(1, writer.getFailed());
+	}
+
+	@Test
+	public void dropNewest() throws InterruptedException {
+		final List<Object> reports = new ArrayList<>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		AsyncWriter writer = new AsyncWriter("test", 2, AsyncWriter.Policy.DROP_NEWEST, blocking(latch, reports));
+		writer.start();
+		writer.put(Integer.valueOf(0));
+		while (writer.size() > 0)
+			Thread.sleep(10);
+		for (int i = 1; i < 5; i++)
+			writer.put(Integer.valueOf(i));
+		latch.countDown();
+		writer.stop();
+
+		Assert.assertEquals(2, writer.getDropped());
+		Assert.assertEquals(3, reports.size());
+		Assert.assertEquals(Integer.valueOf(0), reports.get(0));
+		Assert.assertEquals(Integer.valueOf(1), reports.get(1));
+		Assert.assertEquals(Integer.valueOf(2), reports.get(2));
+	}
+
+	@Test
+	public void dropOldest() throws InterruptedException {
+		final List<Object> reports = new ArrayList<>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		AsyncWriter writer = new AsyncWriter("test", 2, AsyncWriter.Policy.DROP_OLDEST, blocking(latch, reports));
+		writer.start();
+		writer.put(Integer.valueOf(0));
+		while (writer.size() > 0)
+			Thread.sleep(10);
+		for (int i = 1; i < 5; i++)
+			writer.put(Integer.valueOf(i));
+		latch.countDown();
+		writer.stop();
+
+		Assert.assertEquals(2, writer.getDropped());
+		Assert.assertEquals(3, reports.size());
+		Assert.assertEquals(Integer.valueOf(0), reports.get(0));
+		Assert.assertEquals(Integer.valueOf(3), reports.get(1));
+		Assert.assertEquals(Integer.valueOf(4), reports.get(2));
+	}
+
+	@Test
+	public void putAfterStop() throws InterruptedException {
+		AsyncWriter writer = new AsyncWriter("test", 1, AsyncWriter.Policy.BLOCK, blocking(new CountDownLatch(0), new ArrayList<>()));
+		writer.start();
+		writer.stop();
+		for (int i = 0; i < 3; i++) {
+			try {
+				writer.put(Integer.valueOf(i));
+				Assert.fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) {
+			}
+		}
+		Assert.assertEquals(0, writer.size());
+	}
+
+	@Test
+	public void stopBlocked() throws InterruptedException {
+		final List<Object> reports = new ArrayList<>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		AsyncWriter writer = new AsyncWriter("test", 2, AsyncWriter.Policy.BLOCK, blocking(latch, reports));
+		writer.start();
+		writer.put(Integer.valueOf(0));
+		while (writer.size() > 0)
+			Thread.sleep(10);
+		writer.put(Integer.valueOf(1));
+		writer.put(Integer.valueOf(2));
+		writer.stop(100);
+
+		Assert.assertEquals(0, writer.size());
+		Assert.assertEquals(2, writer.getDropped());
+		Assert.assertEquals(1, writer.getFailed());
+		Assert.assertEquals(0, reports.size());
+	}
+
+	private AsyncWriter.Handler blocking(final CountDownLatch latch, final List<Object> reports) {
+		return new AsyncWriter.Handler() {
+			@Override
+			public void handle(Object report) throws Exception {
+				latch.await();
+				reports.add(report);
+			}
+		};
+	}
+}
@@ -0,0 +1,41 @@
+package havis.middleware.subscriber.sql;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinderTest {
+
+	@Test
+	public void type() {
+		Assert.assertEquals(Types.SMALLINT, Binder.type("SMALLINT"));
+		Assert.assertEquals(Types.INTEGER, Binder.type("int"));
+		Assert.assertEquals(Types.BIGINT, Binder.type("BIGINT"));
+		Assert.assertEquals(Types.DECIMAL, Binder.type("DECIMAL(10,2)"));
+		Assert.assertEquals(Types.TIMESTAMP, Binder.type("TIMESTAMP(3)"));
+		Assert.assertEquals(Types.VARBINARY, Binder.type("VARBINARY(255)"));
+		Assert.assertEquals(Types.VARCHAR, Binder.type("VARCHAR(32)"));
+		Assert.assertEquals(Types.VARCHAR, Binder.type("TEXT"));
+	}
+
+	@Test
+	public void convert() {
+		Assert.assertNull(Binder.convert(null, Types.INTEGER));
+		Assert.assertEquals(Integer.valueOf(42), Binder.convert(" 42", Types.SMALLINT));
+		Assert.assertEquals(Integer.valueOf(42), Binder.convert(Long.valueOf(42), Types.INTEGER));
+		Assert.assertEquals(Long.valueOf(42), Binder.convert("42", Types.BIGINT));
+		Assert.assertEquals(new BigDecimal("4.20"), Binder.convert("4.20", Types.DECIMAL));
+		Assert.assertEquals(Boolean.TRUE, Binder.convert("true", Types.BOOLEAN));
+		Assert.assertEquals(new Timestamp(1000), Binder.convert(Long.valueOf(1000), Types.TIMESTAMP));
+		Assert.assertArrayEquals(new byte[] { 0x30 }, (byte[]) Binder.convert("30", Types.VARBINARY));
+		Assert.assertEquals("1000", Binder.convert(Long.valueOf(1000), Types.VARCHAR));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void convertInvalid() {
+		Binder.convert("abc", Types.INTEGER);
+	}
+}
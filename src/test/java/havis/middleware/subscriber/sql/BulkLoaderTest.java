@@ -0,0 +1,76 @@
+package havis.middleware.subscriber.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.RowSet;
+
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+
+public class BulkLoaderTest {
+
+	@Test
+	public void load(@Mocked final Connection connection) throws SQLException {
+		final List<String> mappings = new ArrayList<>();
+		final List<Object[]> rows = new ArrayList<>();
+		final String[] table = new String[1];
+
+		new MockUp<SQLServerBulkCopy>() {
+			@Mock
+			void $init(Connection connection) {
+			}
+
+			@Mock
+			void setDestinationTableName(String name) {
+				table[0] = name;
+			}
+
+			@Mock
+			void addColumnMapping(int source, String destination) {
+				mappings.add(source + ":" + destination);
+			}
+
+			@Mock
+			void writeToServer(RowSet rowSet) throws SQLException {
+				while (rowSet.next())
+					rows.add(new Object[] { rowSet.getObject(1), rowSet.getObject(2), rowSet.getObject(3) });
+			}
+
+			@Mock
+			void close() {
+			}
+		};
+
+		Date date = new Date();
+		BulkLoader loader = new BulkLoader("[test]", Arrays.asList("epc", "date", "total"), new int[] { Types.VARCHAR, Types.TIMESTAMP, Types.BIGINT });
+		loader.begin(connection);
+		loader.add(new Object[] { "epc1", date, Long.valueOf(1) });
+		loader.add(new Object[] { null, null, null });
+		Assert.assertEquals(2, loader.end());
+
+		Assert.assertEquals("[test]", table[0]);
+		Assert.assertEquals(Arrays.asList("1:epc", "2:date", "3:total"), mappings);
+		Assert.assertEquals(2, rows.size());
+		Assert.assertArrayEquals(new Object[] { "epc1", new Timestamp(date.getTime()), Long.valueOf(1) }, rows.get(0));
+		Assert.assertArrayEquals(new Object[] { null, null, null }, rows.get(1));
+
+		// nothing to write
+		rows.clear();
+		loader.begin(connection);
+		Assert.assertEquals(0, loader.end());
+		Assert.assertEquals(0, rows.size());
+	}
+}
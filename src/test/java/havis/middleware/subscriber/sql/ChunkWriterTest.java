@@ -0,0 +1,44 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChunkWriterTest {
+
+	@Test
+	public void write() throws IOException {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 50000; i++)
+			expected.append(i).append(',');
+		ChunkWriter writer = new ChunkWriter();
+		writer.write('[');
+		writer.write(expected.toString());
+		writer.write(expected.toString().toCharArray(), 0, 100);
+		writer.write(']');
+		String string = "[" + expected + expected.substring(0, 100) + "]";
+		Assert.assertEquals(string.length(), writer.length());
+		Assert.assertEquals(string, writer.toString());
+
+		StringBuilder read = new StringBuilder();
+		try (Reader reader = writer.reader()) {
+			char[] buffer = new char[10000];
+			int n;
+			while ((n = reader.read(buffer, 0, buffer.length)) >= 0)
+				read.append(buffer, 0, n);
+		}
+		Assert.assertEquals(string, read.toString());
+	}
+
+	@Test
+	public void reset() throws IOException {
+		ChunkWriter writer = new ChunkWriter();
+		writer.write("first");
+		writer.reset();
+		Assert.assertEquals(0, writer.length());
+		writer.write("second");
+		Assert.assertEquals("second", writer.toString());
+	}
+}
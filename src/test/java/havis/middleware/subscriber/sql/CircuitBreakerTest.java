@@ -0,0 +1,68 @@
+package havis.middleware.subscriber.sql;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void open() {
+		CircuitBreaker breaker = new CircuitBreaker(2, 100, 300);
+		Assert.assertTrue(breaker.allow(0));
+		Assert.assertFalse(breaker.failure(0));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		// the backoff time applies from the first failure
+		Assert.assertFalse(breaker.allow(50));
+		Assert.assertEquals(50, breaker.remaining(50));
+		Assert.assertTrue(breaker.allow(100));
+		Assert.assertTrue(breaker.failure(110));
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allow(250));
+		Assert.assertEquals(60, breaker.remaining(250));
+
+		// a single trial after the backoff time
+		Assert.assertTrue(breaker.allow(310));
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allow(310));
+
+		// the backoff time doubles up to the maximum
+		Assert.assertTrue(breaker.failure(310));
+		Assert.assertFalse(breaker.allow(609));
+		Assert.assertTrue(breaker.allow(610));
+		Assert.assertTrue(breaker.failure(610));
+		Assert.assertEquals(300, breaker.remaining(610));
+
+		Assert.assertTrue(breaker.allow(910));
+		breaker.success();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertEquals(0, breaker.remaining(910));
+		Assert.assertTrue(breaker.allow(910));
+		Assert.assertFalse(breaker.failure(910));
+		Assert.assertEquals(100, breaker.remaining(910));
+	}
+
+	@Test
+	public void abort() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 100, 300);
+		Assert.assertTrue(breaker.failure(0));
+		Assert.assertTrue(breaker.allow(100));
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		// the trial did not reach the database, another one is let through
+		breaker.abort();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertTrue(breaker.allow(100));
+		breaker.success();
+		breaker.abort();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void disabled() {
+		CircuitBreaker breaker = new CircuitBreaker(0, 100, 300);
+		for (int i = 0; i < 10; i++)
+			Assert.assertFalse(breaker.failure(0));
+		Assert.assertTrue(breaker.allow(0));
+	}
+}
@@ -0,0 +1,55 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressorTest {
+
+	@Test
+	public void gzip() throws Exception {
+		Compressor compressor = new Compressor(Compressor.Format.GZIP);
+		for (String text : new String[] { "<reports>äöü</reports>", "second" }) {
+			Writer writer = compressor.open();
+			writer.write(text);
+			compressor.finish();
+
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try (InputStream input = new GZIPInputStream(compressor.input())) {
+				byte[] buffer = new byte[1024];
+				int n;
+				while ((n = input.read(buffer)) >= 0)
+					output.write(buffer, 0, n);
+			}
+			Assert.assertEquals(text, output.toString("UTF-8"));
+			Assert.assertEquals(text, Compressor.decompress(compressor.toByteArray()));
+		}
+		compressor.close();
+	}
+
+	@Test
+	public void deflate() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			text.append("<member><epc>urn:epc:id:sgtin:0614141.812345.").append(i).append("</epc></member>");
+		Compressor compressor = new Compressor(Compressor.Format.DEFLATE);
+		Writer writer = compressor.open();
+		writer.write(text.toString());
+		compressor.finish();
+		Assert.assertTrue(compressor.length() < text.length() / 10);
+		Assert.assertEquals(compressor.length(), compressor.toByteArray().length);
+		Assert.assertEquals(text.toString(), Compressor.decompress(compressor.toByteArray()));
+		compressor.close();
+	}
+
+	@Test
+	public void parse() {
+		Assert.assertEquals(Compressor.Format.GZIP, Compressor.Format.parse("gzip"));
+		Assert.assertEquals(Compressor.Format.DEFLATE, Compressor.Format.parse("deflate"));
+		Assert.assertNull(Compressor.Format.parse("zip"));
+	}
+}
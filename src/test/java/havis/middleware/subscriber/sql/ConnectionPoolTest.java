@@ -0,0 +1,97 @@
+package havis.middleware.subscriber.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+	private final static String url = "jdbc:h2:mem:pool";
+
+	private Connection database;
+
+	@Before
+	public void open() throws SQLException {
+		// keeps the in-memory database open
+		database = DriverManager.getConnection(url);
+	}
+
+	@After
+	public void close() throws SQLException {
+		database.close();
+	}
+
+	@Test
+	public void borrow() throws SQLException {
+		ConnectionPool pool = new ConnectionPool(url, 2, 60000);
+		ConnectionPool.Pooled first = pool.borrow();
+		Assert.assertFalse(first.connection.getAutoCommit());
+		ConnectionPool.Pooled second = pool.borrow();
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(2, pool.size());
+
+		PreparedStatement stmt = first.prepare("SELECT 1");
+		Assert.assertSame(stmt, first.prepare("SELECT 1"));
+		Assert.assertNotSame(stmt, first.prepare("SELECT 2"));
+
+		pool.release(first);
+		Assert.assertEquals(1, pool.idle());
+		Assert.assertSame(first, pool.borrow());
+		Assert.assertSame(stmt, first.prepare("SELECT 1"));
+		pool.release(first);
+		pool.release(second);
+		Assert.assertEquals(2, pool.idle());
+
+		pool.close();
+		Assert.assertEquals(0, pool.size());
+		Assert.assertTrue(first.connection.isClosed());
+		Assert.assertTrue(stmt.isClosed());
+	}
+
+	@Test
+	public void borrowInvalid() throws SQLException {
+		ConnectionPool pool = new ConnectionPool(url, 1, 60000);
+		ConnectionPool.Pooled pooled = pool.borrow();
+		pool.release(pooled);
+		pooled.connection.close();
+
+		ConnectionPool.Pooled other = pool.borrow();
+		Assert.assertNotSame(pooled, other);
+		Assert.assertFalse(other.connection.isClosed());
+		Assert.assertEquals(1, pool.size());
+		pool.discard(other);
+		Assert.assertEquals(0, pool.size());
+		Assert.assertTrue(other.connection.isClosed());
+	}
+
+	@Test
+	public void evict() throws SQLException {
+		ConnectionPool pool = new ConnectionPool(url, 2, 60000);
+		ConnectionPool.Pooled pooled = pool.borrow();
+		pool.release(pooled);
+		pool.evict();
+		Assert.assertEquals(1, pool.idle());
+
+		pool.configure(1, 0);
+		pool.evict();
+		Assert.assertEquals(0, pool.idle());
+		Assert.assertEquals(0, pool.size());
+		Assert.assertTrue(pooled.connection.isClosed());
+	}
+
+	@Test
+	public void releaseAfterClose() throws SQLException {
+		ConnectionPool pool = new ConnectionPool(url, 1, 60000);
+		ConnectionPool.Pooled pooled = pool.borrow();
+		pool.close();
+		pool.release(pooled);
+		Assert.assertEquals(0, pool.size());
+		Assert.assertTrue(pooled.connection.isClosed());
+	}
+}
@@ -0,0 +1,39 @@
+package havis.middleware.subscriber.sql;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CopyLoaderTest {
+
+	@Test
+	public void sql() {
+		Assert.assertEquals("COPY \"test\" (\"epc\",\"date\") FROM STDIN", new CopyLoader("\"test\"", "\"epc\",\"date\"").getSql());
+	}
+
+	@Test
+	public void append() {
+		StringBuilder buffer = new StringBuilder();
+		CopyLoader.append(buffer, null);
+		Assert.assertEquals("\\N", buffer.toString());
+
+		buffer.setLength(0);
+		CopyLoader.append(buffer, "a\tb\nc\rd\\e");
+		Assert.assertEquals("a\\tb\\nc\\rd\\\\e", buffer.toString());
+
+		buffer.setLength(0);
+		CopyLoader.append(buffer, Long.valueOf(12345));
+		Assert.assertEquals("12345", buffer.toString());
+
+		Date date = new Date();
+		buffer.setLength(0);
+		CopyLoader.append(buffer, date);
+		Assert.assertEquals(new Timestamp(date.getTime()).toString(), buffer.toString());
+
+		buffer.setLength(0);
+		CopyLoader.append(buffer, new byte[] { 0x30, (byte) 0xff });
+		Assert.assertEquals("\\\\x30FF", buffer.toString());
+	}
+}
@@ -0,0 +1,68 @@
+package havis.middleware.subscriber.sql;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeduplicatorTest {
+
+	@Test
+	public void seen() {
+		Deduplicator deduplicator = new Deduplicator(1000, 100);
+		Assert.assertFalse(deduplicator.seen("spec", "epc1", 0));
+		Assert.assertTrue(deduplicator.seen("spec", "epc1", 999));
+		Assert.assertFalse(deduplicator.seen("other", "epc1", 999));
+		Assert.assertFalse(deduplicator.seen("spec", "epc2", 999));
+		Assert.assertFalse(deduplicator.seen("spec", "epc1", 1000));
+		Assert.assertTrue(deduplicator.seen("spec", "epc1", 1500));
+		Assert.assertEquals(2, deduplicator.getHits());
+		Assert.assertEquals(4, deduplicator.getMisses());
+	}
+
+	@Test
+	public void seenNullSpec() {
+		Deduplicator deduplicator = new Deduplicator(1000, 100);
+		Assert.assertFalse(deduplicator.seen(null, "epc", 0));
+		Assert.assertTrue(deduplicator.seen(null, "epc", 0));
+	}
+
+	@Test
+	public void revert() {
+		Deduplicator deduplicator = new Deduplicator(1000, 100);
+		Assert.assertFalse(deduplicator.seen("spec", "epc1", 0));
+		deduplicator.confirm(0);
+		Assert.assertEquals(0, deduplicator.pending());
+
+		Assert.assertFalse(deduplicator.seen("spec", "epc2", 10));
+		int from = deduplicator.pending();
+		Assert.assertFalse(deduplicator.seen("spec", "epc3", 20));
+		Assert.assertTrue(deduplicator.seen("spec", "epc1", 20));
+		Assert.assertEquals(2, deduplicator.pending());
+		deduplicator.revert(from);
+		Assert.assertEquals(1, deduplicator.pending());
+		Assert.assertFalse(deduplicator.seen("spec", "epc3", 30));
+		Assert.assertTrue(deduplicator.seen("spec", "epc2", 30));
+		Assert.assertTrue(deduplicator.seen("spec", "epc1", 30));
+
+		deduplicator.revert(0);
+		Assert.assertEquals(0, deduplicator.pending());
+		Assert.assertFalse(deduplicator.seen("spec", "epc2", 40));
+		Assert.assertFalse(deduplicator.seen("spec", "epc3", 40));
+		Assert.assertTrue(deduplicator.seen("spec", "epc1", 40));
+	}
+
+	@Test
+	public void bounded() {
+		Deduplicator deduplicator = new Deduplicator(1000, 2000);
+		for (int i = 0; i < 1500; i++)
+			Assert.assertFalse(deduplicator.seen("spec", "epc" + i, 0));
+		for (int i = 0; i < 1500; i++)
+			Assert.assertTrue(deduplicator.seen("spec", "epc" + i, 1));
+		Assert.assertEquals(1500, deduplicator.size());
+
+		// expired keys are removed when the table is rehashed
+		for (int i = 0; i < 100000; i++)
+			deduplicator.seen("spec", "other" + i, 2000 + i);
+		Assert.assertTrue(deduplicator.size() <= 4096 / 4 * 3);
+		Assert.assertFalse(deduplicator.seen("spec", "epc0", 200000));
+	}
+}
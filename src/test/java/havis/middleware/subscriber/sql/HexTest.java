@@ -0,0 +1,60 @@
+package havis.middleware.subscriber.sql;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HexTest {
+
+	@Test
+	public void decode() {
+		Assert.assertNull(Hex.decode(null));
+		Assert.assertArrayEquals(new byte[0], Hex.decode(""));
+		Assert.assertArrayEquals(new byte[] { 0x30, 0x00, (byte) 0xab, (byte) 0xcd }, Hex.decode("3000abCD"));
+		Assert.assertArrayEquals(new byte[] { 0x03, 0x00 }, Hex.decode("300"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeInvalid() {
+		Hex.decode("urn:epc:raw:24.x307425");
+	}
+
+	@Test
+	public void raw() {
+		Assert.assertNull(Hex.raw(null));
+		Assert.assertArrayEquals(new byte[] { 0x00, 0x18, 0x30, 0x74, 0x25 }, Hex.raw("urn:epc:raw:24.x307425"));
+		Assert.assertArrayEquals(new byte[] { 0x00, 0x16, 0x30, 0x74, 0x24 }, Hex.raw("urn:epc:raw:22.x307424"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rawHex() {
+		Hex.raw("3000abCD");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rawInvalid() {
+		Hex.raw("urn:epc:id:sgtin:0614141.812345.6789");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rawInvalidDigits() {
+		Hex.raw("urn:epc:raw:96");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rawInvalidLength() {
+		Hex.raw("urn:epc:raw:65536.x3074");
+	}
+
+	@Test
+	public void urn() {
+		Assert.assertNull(Hex.urn(null));
+		Assert.assertEquals("urn:epc:raw:22.x307424", Hex.urn(Hex.raw("urn:epc:raw:22.x307424")));
+		Assert.assertEquals("urn:epc:raw:0.x", Hex.urn(new byte[] { 0x00, 0x00 }));
+	}
+
+	@Test
+	public void encode() {
+		Assert.assertNull(Hex.encode(null));
+		Assert.assertEquals("3000ABCD", Hex.encode(new byte[] { 0x30, 0x00, (byte) 0xab, (byte) 0xcd }));
+	}
+}
@@ -0,0 +1,163 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalTest {
+
+	private File directory;
+
+	@Before
+	public void before() throws IOException {
+		directory = Files.createTempDirectory("journal").toFile();
+	}
+
+	@After
+	public void after() {
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void replay() throws Exception {
+		Date date = new Date();
+		Journal journal = new Journal(directory);
+		Assert.assertTrue(journal.isEmpty());
+		journal.append(0, new Object[] { "epc1", date, Long.valueOf(1000), Integer.valueOf(2), null, Boolean.TRUE });
+		journal.append(1, new Object[] { "<xml/>" });
+		journal.append(0, new Object[] { new byte[] { 0x30, 0x00 } });
+		journal.sync();
+		Assert.assertFalse(journal.isEmpty());
+
+		List<Object[]> rows = new ArrayList<>();
+		Assert.assertEquals(3, journal.replay(collect(rows), 10));
+		Assert.assertEquals(0, journal.replay(collect(rows), 10));
+		Assert.assertArrayEquals(new Object[] { Integer.valueOf(0), "epc1", date, Long.valueOf(1000), Integer.valueOf(2), null, Boolean.TRUE }, rows.get(0));
+		Assert.assertArrayEquals(new Object[] { Integer.valueOf(1), "<xml/>" }, rows.get(1));
+		Assert.assertArrayEquals(new byte[] { 0x30, 0x00 }, (byte[]) rows.get(2)[1]);
+
+		rows.clear();
+		journal.reset();
+		Assert.assertEquals(1, journal.replay(collect(rows), 1));
+		journal.commit();
+		Assert.assertFalse(journal.isEmpty());
+		journal.close();
+
+		journal = new Journal(directory);
+		Assert.assertFalse(journal.isEmpty());
+		rows.clear();
+		Assert.assertEquals(2, journal.replay(collect(rows), 10));
+		Assert.assertArrayEquals(new Object[] { Integer.valueOf(1), "<xml/>" }, rows.get(0));
+		journal.commit();
+		Assert.assertTrue(journal.isEmpty());
+		Assert.assertEquals(0, directory.listFiles().length);
+		journal.close();
+	}
+
+	@Test
+	public void largeRow() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 5 * 1024 * 1024; i++)
+			builder.append('x');
+		Journal journal = new Journal(directory);
+		journal.append(0, new Object[] { "small" });
+		journal.append(0, new Object[] { builder.toString() });
+		journal.append(0, new Object[] { "small" });
+		Assert.assertEquals(3, directory.listFiles().length);
+
+		List<Object[]> rows = new ArrayList<>();
+		Assert.assertEquals(3, journal.replay(collect(rows), 10));
+		Assert.assertEquals(builder.toString(), rows.get(1)[1]);
+		journal.commit();
+		Assert.assertTrue(journal.isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void mark() throws Exception {
+		Journal journal = new Journal(directory);
+		journal.append(2, new Object[] { "header" });
+		journal.append(0, new Object[] { "epc1" });
+		journal.append(0, new Object[] { "epc2" });
+		Assert.assertEquals(0, journal.mark());
+
+		List<Object[]> rows = new ArrayList<>();
+		Assert.assertEquals(2, journal.replay(collect(rows), 2));
+		journal.commit(42);
+		Assert.assertEquals(42, journal.mark());
+		journal.close();
+
+		journal = new Journal(directory);
+		Assert.assertEquals(42, journal.mark());
+		rows.clear();
+		Assert.assertEquals(1, journal.replay(collect(rows), 10));
+		Assert.assertEquals("epc2", rows.get(0)[1]);
+		journal.commit(0);
+		Assert.assertTrue(journal.isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void overflowReject() throws Exception {
+		String large = large();
+		Journal journal = new Journal(directory, 8 * 1024 * 1024, Journal.Overflow.REJECT);
+		journal.append(0, new Object[] { large });
+		try {
+			journal.append(0, new Object[] { large });
+			Assert.fail("Expected IOException");
+		} catch (IOException e) {
+		}
+		Assert.assertEquals(1, directory.listFiles().length);
+
+		List<Object[]> rows = new ArrayList<>();
+		Assert.assertEquals(1, journal.replay(collect(rows), 10));
+		journal.commit();
+		Assert.assertEquals(0, journal.size());
+		Assert.assertEquals(0, directory.listFiles().length);
+		journal.append(0, new Object[] { large });
+		journal.close();
+	}
+
+	@Test
+	public void overflowDropOldest() throws Exception {
+		String large = large();
+		Journal journal = new Journal(directory, 8 * 1024 * 1024, Journal.Overflow.DROP_OLDEST);
+		journal.append(0, new Object[] { "first", large });
+		journal.append(0, new Object[] { "second", large });
+		Assert.assertEquals(1, directory.listFiles().length);
+
+		List<Object[]> rows = new ArrayList<>();
+		Assert.assertEquals(1, journal.replay(collect(rows), 10));
+		Assert.assertEquals("second", rows.get(0)[1]);
+		journal.close();
+	}
+
+	private String large() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 5 * 1024 * 1024; i++)
+			builder.append('x');
+		return builder.toString();
+	}
+
+	private Journal.Replay collect(final List<Object[]> rows) {
+		return new Journal.Replay() {
+			@Override
+			public void row(int statement, Object[] row) {
+				Object[] values = new Object[row.length + 1];
+				values[0] = Integer.valueOf(statement);
+				System.arraycopy(row, 0, values, 1, row.length);
+				rows.add(values);
+			}
+		};
+	}
+}
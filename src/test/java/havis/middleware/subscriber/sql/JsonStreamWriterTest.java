@@ -0,0 +1,43 @@
+package havis.middleware.subscriber.sql;
+
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonStreamWriterTest {
+
+	@Test
+	public void write() throws Exception {
+		StringWriter writer = new StringWriter();
+		XMLStreamWriter stream = new JsonStreamWriter(writer);
+		stream.writeStartDocument();
+		stream.writeStartElement("ns", "reports", "urn:test");
+		stream.writeNamespace("ns", "urn:test");
+		stream.writeAttribute("date", "2018-01-01");
+		stream.writeAttribute("urn:test", "name", "a \"b\"");
+		stream.writeStartElement("member");
+		stream.writeCharacters("x\\y\n\u0001");
+		stream.writeEndElement();
+		stream.writeEmptyElement("empty");
+		stream.writeAttribute("id", "1");
+		stream.writeEmptyElement("none");
+		stream.writeStartElement("last");
+		stream.writeCharacters("");
+		stream.writeEndDocument();
+		stream.flush();
+		Assert.assertEquals("[\"reports\",{\"date\":\"2018-01-01\",\"name\":\"a \\\"b\\\"\"},[\"member\",\"x\\\\y\\n\\u0001\"],[\"empty\",{\"id\":\"1\"}],[\"none\"],[\"last\"]]",
+				writer.toString());
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void attributeOutsideOfStartTag() throws Exception {
+		XMLStreamWriter stream = new JsonStreamWriter(new StringWriter());
+		stream.writeStartElement("reports");
+		stream.writeCharacters("text");
+		stream.writeAttribute("date", "2018-01-01");
+	}
+}
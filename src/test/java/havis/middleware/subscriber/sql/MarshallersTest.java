@@ -0,0 +1,52 @@
+package havis.middleware.subscriber.sql;
+
+import havis.middleware.ale.service.cc.CCReports;
+import havis.middleware.ale.service.ec.ECReports;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+
+import mockit.Mocked;
+import mockit.Verifications;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MarshallersTest {
+
+	@After
+	public void clear() {
+		Marshallers.INSTANCE.clear();
+	}
+
+	@Test
+	public void acquire() throws Exception {
+		Marshallers.INSTANCE.clear();
+		Marshaller marshaller = Marshallers.INSTANCE.acquire(ECReports.class);
+		Assert.assertNotNull(marshaller);
+		Assert.assertNotSame(marshaller, Marshallers.INSTANCE.acquire(ECReports.class));
+
+		Marshallers.INSTANCE.release(ECReports.class, marshaller);
+		Assert.assertNotSame(marshaller, Marshallers.INSTANCE.acquire(CCReports.class));
+		Assert.assertSame(marshaller, Marshallers.INSTANCE.acquire(ECReports.class));
+	}
+
+	@Test
+	public void init(@Mocked final JAXBContext context) throws Exception {
+		Marshallers.INSTANCE.clear();
+		Marshallers.INSTANCE.init();
+		Marshallers.INSTANCE.init();
+		Marshallers.INSTANCE.acquire(ECReports.class);
+		Marshallers.INSTANCE.acquire(ECReports.class);
+
+		new Verifications() {
+			{
+				JAXBContext.newInstance(ECReports.class);
+				times = 1;
+				context.createMarshaller();
+				times = 2;
+			}
+		};
+	}
+}
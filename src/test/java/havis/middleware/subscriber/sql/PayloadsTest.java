@@ -0,0 +1,50 @@
+package havis.middleware.subscriber.sql;
+
+import havis.middleware.ale.service.ec.ECReports;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadsTest {
+
+	@Test
+	public void lru() {
+		Payloads payloads = new Payloads(2);
+		payloads.add("a");
+		payloads.add("b");
+		Assert.assertTrue(payloads.contains("a"));
+		payloads.add("c");
+		Assert.assertTrue(payloads.contains("a"));
+		Assert.assertFalse(payloads.contains("b"));
+		Assert.assertTrue(payloads.contains("c"));
+		Assert.assertEquals(2, payloads.size());
+		payloads.clear();
+		Assert.assertFalse(payloads.contains("a"));
+	}
+
+	@Test
+	public void hash() {
+		Payloads payloads = new Payloads(2);
+		String hash = payloads.hash("abc");
+		Assert.assertEquals("BA7816BF8F01CFEA414140DE5DAE2223B00361A396177A9CB410FF61F20015AD", hash);
+		Assert.assertEquals(Payloads.HASH_LENGTH, hash.length());
+		Assert.assertEquals(hash, payloads.hash(new byte[] { 'a', 'b', 'c' }));
+	}
+
+	@Test
+	public void undated() {
+		ECReports reports = SqlSubscriberConnectorTest.getReport("epc", new Date(), 1000);
+		reports.setSpecName("spec");
+		reports.setInitiationTrigger("trigger");
+		ECReports copy = (ECReports) Payloads.undated(reports);
+		Assert.assertEquals(ECReports.class, copy.getClass());
+		Assert.assertNull(copy.getDate());
+		Assert.assertEquals(0, copy.getTotalMilliseconds());
+		Assert.assertNull(copy.getInitiationTrigger());
+		Assert.assertEquals("spec", copy.getSpecName());
+		Assert.assertSame(reports.getReports(), copy.getReports());
+		Assert.assertNotNull(reports.getDate());
+	}
+}
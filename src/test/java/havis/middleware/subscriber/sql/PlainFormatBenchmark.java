@@ -0,0 +1,122 @@
+package havis.middleware.subscriber.sql;
+
+import havis.middleware.ale.base.NamespaceXMLStreamWriter;
+import havis.middleware.ale.service.EPC;
+import havis.middleware.ale.service.ec.ECReport;
+import havis.middleware.ale.service.ec.ECReportGroup;
+import havis.middleware.ale.service.ec.ECReportGroupList;
+import havis.middleware.ale.service.ec.ECReportGroupListMember;
+import havis.middleware.ale.service.ec.ECReports;
+import havis.middleware.ale.service.ec.ObjectFactory;
+
+import java.util.Date;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Compares the plain output formats by marshalling the same report with the
+ * XML, JsonML and Fast Infoset stream writers. Run as application, the
+ * arguments are the number of members per report and the number of rounds.
+ */
+public class PlainFormatBenchmark {
+
+	private interface Format {
+		XMLStreamWriter open();
+
+		int finish() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		ECReportGroupList list = new ECReportGroupList();
+		for (int i = 0; i < members; i++) {
+			ECReportGroupListMember member = new ECReportGroupListMember();
+			member.setEpc(new EPC("urn:epc:id:sgtin:0614141.812345." + i));
+			list.getMember().add(member);
+		}
+		ECReportGroup group = new ECReportGroup();
+		group.setGroupList(list);
+		ECReport report = new ECReport();
+		report.getGroup().add(group);
+		ECReports reports = new ECReports();
+		reports.setDate(new Date());
+		reports.setReports(new ECReports.Reports());
+		reports.getReports().getReport().add(report);
+
+		final JAXBElement<ECReports> element = new ObjectFactory().createECReports(reports);
+		final Marshaller marshaller = Marshallers.INSTANCE.acquire(ECReports.class);
+		final ChunkWriter writer = new ChunkWriter();
+		final FastInfosetEncoder encoder = new FastInfosetEncoder();
+
+		Format[] formats = { new Format() {
+			@Override
+			public XMLStreamWriter open() {
+				writer.reset();
+				return NamespaceXMLStreamWriter.create(writer);
+			}
+
+			@Override
+			public int finish() {
+				return writer.length();
+			}
+
+			@Override
+			public String toString() {
+				return "xml";
+			}
+		}, new Format() {
+			@Override
+			public XMLStreamWriter open() {
+				writer.reset();
+				return new JsonStreamWriter(writer);
+			}
+
+			@Override
+			public int finish() {
+				return writer.length();
+			}
+
+			@Override
+			public String toString() {
+				return "json";
+			}
+		}, new Format() {
+			@Override
+			public XMLStreamWriter open() {
+				return encoder.open();
+			}
+
+			@Override
+			public int finish() throws Exception {
+				encoder.finish();
+				return encoder.length();
+			}
+
+			@Override
+			public String toString() {
+				return "fastinfoset";
+			}
+		} };
+
+		// first pass warms up, second pass is measured
+		for (int pass = 0; pass < 2; pass++) {
+			for (Format format : formats) {
+				int length = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < rounds; i++) {
+					marshaller.marshal(element, format.open());
+					length = format.finish();
+				}
+				long nanos = System.nanoTime() - start;
+				if (pass > 0)
+					System.out.println(String.format("%-12s %10d bytes/chars %10.1f us/report", format, Integer.valueOf(length),
+							Double.valueOf(nanos / 1000.0 / rounds)));
+			}
+		}
+		Marshallers.INSTANCE.release(ECReports.class, marshaller);
+	}
+}
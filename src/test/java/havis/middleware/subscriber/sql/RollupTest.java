@@ -0,0 +1,72 @@
+package havis.middleware.subscriber.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RollupTest {
+
+	@Test
+	public void add() {
+		Rollup rollup = new Rollup();
+		rollup.add("epc1", "group1", 2000);
+		rollup.add("epc1", "group2", 3000);
+		rollup.add("epc1", "group3", 1000);
+		rollup.add("epc2", null, 1000);
+		Assert.assertEquals(2, rollup.size());
+
+		List<Rollup.Tally> tallies = rollup.drain();
+		Assert.assertEquals(0, rollup.size());
+		Assert.assertEquals(2, tallies.size());
+		Rollup.Tally tally = tallies.get(0).epc.equals("epc1") ? tallies.get(0) : tallies.get(1);
+		Assert.assertEquals(1000, tally.first);
+		Assert.assertEquals(3000, tally.last);
+		Assert.assertEquals(3, tally.count);
+		Assert.assertEquals("group2", tally.group);
+	}
+
+	@Test
+	public void restore() {
+		Rollup rollup = new Rollup();
+		rollup.add("epc1", "group1", 1000);
+		List<Rollup.Tally> tallies = rollup.drain();
+		rollup.add("epc1", "group2", 2000);
+		rollup.restore(tallies);
+
+		tallies = rollup.drain();
+		Assert.assertEquals(1, tallies.size());
+		Assert.assertEquals(1000, tallies.get(0).first);
+		Assert.assertEquals(2000, tallies.get(0).last);
+		Assert.assertEquals(2, tallies.get(0).count);
+		Assert.assertEquals("group2", tallies.get(0).group);
+	}
+
+	@Test
+	public void concurrent() throws InterruptedException {
+		final Rollup rollup = new Rollup();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++)
+						rollup.add("epc" + (i % 10), "group", i);
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		long count = 0;
+		while (!threads.isEmpty()) {
+			for (Rollup.Tally tally : rollup.drain())
+				count += tally.count;
+			if (!threads.get(0).isAlive())
+				threads.remove(0);
+		}
+		for (Rollup.Tally tally : rollup.drain())
+			count += tally.count;
+		Assert.assertEquals(40000, count);
+	}
+}
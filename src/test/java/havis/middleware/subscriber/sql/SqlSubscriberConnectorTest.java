@@ -26,20 +26,28 @@ import havis.middleware.ale.service.pc.PCReports;
 import havis.middleware.ale.subscriber.SubscriberConnector;
 import havis.middleware.subscriber.sql.rest.Storage;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -53,9 +61,14 @@ import javax.xml.stream.XMLStreamWriter;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.h2.jdbc.JdbcPreparedStatement;
 import org.junit.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 
 import mockit.Deencapsulation;
+import mockit.Invocation;
 import mockit.Mock;
 import mockit.MockUp;
 import mockit.Mocked;
@@ -90,19 +103,28 @@ public class SqlSubscriberConnectorTest {
 
 	private String resValue = "fieldname10";
 
+	/**
+	 * keeps the in-memory database open during the test
+	 */
+	private Connection database;
+
 	@Before
 	public void init() throws SQLException {
-		Connection connection = DriverManager.getConnection(url);
-		try (Statement statement = connection.createStatement()) {
+		database = DriverManager.getConnection(url);
+		try (Statement statement = database.createStatement()) {
 			statement.execute(CREATE);
 		}
 	}
 
 	@After
 	public void drop() throws SQLException {
-		Connection connection = DriverManager.getConnection(url);
-		try (Statement statement = connection.createStatement()) {
+		try (Statement statement = database.createStatement()) {
 			statement.execute(DROP);
+		} finally {
+			database.close();
+			// mocked contexts and marshallers must not leak into other tests
+			Marshallers.INSTANCE.clear();
+			ConnectionPools.INSTANCE.clear();
 		}
 	}
 
@@ -269,7 +291,7 @@ public class SqlSubscriberConnectorTest {
 		// sql-statement gets executed
 		// Expecting: "TEXT" = "INSERT INTO test (abc) VALUES (?)"
 		// "map.totalMilliseconds" = 1 sql-statement =
-		// "CREATE TABLE test (abc LONG)"
+		// "CREATE TABLE test (abc BIGINT)"
 		connector.init(new URI("sql://?connection=jdbc:&table=test&totalMilliseconds=abc&init=true"), new HashMap<String, String>());
 		text = getField(connector, "TEXT");
 		map = getField(connector, "map");
@@ -281,7 +303,7 @@ public class SqlSubscriberConnectorTest {
 			{
 				String sql;
 				statement.execute(sql = withCapture());
-				Assert.assertEquals("CREATE TABLE \"test\" (\"abc\" LONG)", sql);
+				Assert.assertEquals("CREATE TABLE \"test\" (\"abc\" BIGINT)", sql);
 			}
 		};
 		setField(connector, "init", false);
@@ -661,6 +683,43 @@ public class SqlSubscriberConnectorTest {
 		}
 	}
 	
+	@Test
+	public void initLoad() throws URISyntaxException, ImplementationException, InvalidURIException {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI("sql://?connection=jdbc%3Apostgresql%3A%2F%2Flocalhost%2Ftest&table=test&epc=epc&date=date&load=copy"), new HashMap<String, String>());
+		CopyLoader loader = getField(connector, "loader");
+		Assert.assertEquals("COPY \"test\" (\"epc\",\"date\") FROM STDIN", loader.getSql());
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&epc=epc&load=copy"), new HashMap<String, String>());
+			Assert.fail("Exception expected");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'copy' of field 'load' requires a PostgreSQL connection", e.getMessage());
+		}
+
+		connector = new SqlSubscriberConnector();
+		connector.init(new URI("sql://?connection=jdbc%3Asqlserver%3A%2F%2Flocalhost&table=test&epc=epc&date=date&load=bulk"), new HashMap<String, String>());
+		Assert.assertTrue(getField(connector, "loader") instanceof BulkLoader);
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&epc=epc&load=bulk"), new HashMap<String, String>());
+			Assert.fail("Exception expected");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'bulk' of field 'load' requires a SQL Server connection", e.getMessage());
+		}
+
+		connector = new SqlSubscriberConnector();
+		connector.init(new URI("sql://?connection=jdbc%3Asqlserver%3A%2F%2Flocalhost&table=test&epc=epc&date=date&spec=spec&load=values"), new HashMap<String, String>());
+		Assert.assertEquals(666, ((ValuesLoader) getField(connector, "loader")).getChunk());
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&epc=epc&load=unknown"), new HashMap<String, String>());
+			Assert.fail("Exception expected");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'unknown' is invalid for field 'load'", e.getMessage());
+		}
+	}
+
 	@Test (expected = ImplementationException.class)
 	public void initImplementationException(@Mocked final URI uri) throws InvalidURIException, ImplementationException, URISyntaxException {
 		final SubscriberConnector connector = new SqlSubscriberConnector();
@@ -961,6 +1020,173 @@ public class SqlSubscriberConnectorTest {
 		connector.dispose();
 	}
 
+	// Rows are added to the batch and the batch gets executed every batchSize rows and for the remaining rows
+	@Test
+	public void sendECReportsWithBatchSize(@Mocked final DriverManager driverManager, @Mocked final Connection connection, @Mocked final PreparedStatement stat) throws Exception {
+		final SubscriberConnector connector = new SqlSubscriberConnector();
+
+		new NonStrictExpectations() {{
+			DriverManager.getConnection("jdbc:");
+			result = connection;
+
+			connection.isClosed();
+			result = false;
+
+			connection.prepareStatement(anyString);
+			result = stat;
+		}};
+
+		connector.init(new URI("sql://?connection=jdbc:&table=test&epc=epc&batchSize=2"), new HashMap<String, String>());
+		connector.send(new ECReports() {{
+			reports = new Reports() {{
+				getReport().add(new ECReport() {{
+					getGroup().add(new ECReportGroup() {{
+						groupList = new ECReportGroupList() {{
+							for (int i = 0; i < 3; i++)
+								getMember().add(new ECReportGroupListMember());
+						}};
+					}});
+				}});
+			}};
+		}});
+
+		new Verifications() {{
+			stat.addBatch();
+			times = 3;
+
+			stat.executeBatch();
+			times = 2;
+
+			stat.execute();
+			times = 0;
+
+			connection.commit();
+			times = 1;
+		}};
+		connector.dispose();
+
+		try {
+			connector.init(new URI("sql://?connection=jdbc:&table=test&epc=epc&batchSize=-1"), new HashMap<String, String>());
+			Assert.fail("Exception expected");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value '-1' is invalid for field 'batchSize'", e.getMessage());
+		}
+	}
+
+	// The rows are streamed with COPY instead of the insert statement
+	@Test
+	public void sendECReportsWithCopy(@Mocked final DriverManager driverManager, @Mocked final Connection connection, @Mocked final PGConnection pgConnection,
+			@Mocked final CopyManager manager, @Mocked final CopyIn copy) throws Exception {
+		final SqlSubscriberConnector connector = new SqlSubscriberConnector();
+
+		new NonStrictExpectations() {{
+			DriverManager.getConnection(anyString);
+			result = connection;
+
+			connection.isClosed();
+			result = false;
+
+			connection.unwrap(PGConnection.class);
+			result = pgConnection;
+
+			pgConnection.getCopyAPI();
+			result = manager;
+
+			manager.copyIn(anyString);
+			result = copy;
+
+			copy.endCopy();
+			result = Long.valueOf(2);
+		}};
+
+		connector.init(new URI("sql://?connection=jdbc%3Apostgresql%3A&table=test&epc=epc&field=f1,f2&load=copy"), new HashMap<String, String>());
+		connector.send(new ECReports() {{
+			reports = new Reports() {{
+				getReport().add(new ECReport() {{
+					getGroup().add(new ECReportGroup() {{
+						groupList = new ECReportGroupList() {{
+							getMember().add(new ECReportGroupListMember() {{
+								epc = new EPC("epc1");
+							}});
+							getMember().add(new ECReportGroupListMember() {{
+								epc = new EPC("epc2");
+								extension = new ECReportGroupListMemberExtension() {{
+									fieldList = new FieldList() {{
+										getField().add(new ECReportMemberField() {{
+											value = "value";
+										}});
+									}};
+								}};
+							}});
+						}};
+					}});
+				}});
+			}};
+		}});
+
+		new Verifications() {{
+			String sql;
+			manager.copyIn(sql = withCapture());
+			Assert.assertEquals("COPY \"test\" (\"epc\",\"f1\",\"f2\") FROM STDIN", sql);
+
+			byte[] bytes;
+			copy.writeToCopy(bytes = withCapture(), 0, anyInt);
+			Assert.assertEquals("epc1\t\\N\t\\N\nepc2\tvalue\t\\N\n", new String(bytes, "UTF-8"));
+
+			connection.prepareStatement(anyString);
+			times = 0;
+
+			connection.commit();
+			times = 1;
+		}};
+		connector.dispose();
+	}
+
+	// The insert statement is prepared once per connection and closed on dispose
+	@Test
+	public void sendECReportsReusesStatement(@Mocked final DriverManager driverManager, @Mocked final Connection connection, @Mocked final PreparedStatement stat) throws Exception {
+		final SqlSubscriberConnector connector = new SqlSubscriberConnector();
+
+		new NonStrictExpectations() {{
+			DriverManager.getConnection("jdbc:");
+			result = connection;
+
+			connection.isClosed();
+			result = false;
+
+			connection.prepareStatement(anyString);
+			result = stat;
+		}};
+
+		connector.init(new URI("sql://?connection=jdbc:&table=test&epc=epc"), new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 1000));
+		connector.send(getReport("epc2", new Date(), 1000));
+
+		new Verifications() {{
+			connection.prepareStatement(anyString);
+			times = 1;
+
+			stat.execute();
+			times = 2;
+
+			stat.close();
+			times = 0;
+		}};
+
+		// a new connection requires a new statement
+		setField(connector, "connection", null);
+		connector.send(getReport("epc3", new Date(), 1000));
+		connector.dispose();
+
+		new Verifications() {{
+			connection.prepareStatement(anyString);
+			times = 2;
+
+			stat.close();
+			times = 1;
+		}};
+	}
+
 	//- Does the PreparedStatement is generated with the correct SQL statement
 	//- Does the PreparedStatement takes the correct index for each value
 	@Test
@@ -1555,6 +1781,178 @@ public class SqlSubscriberConnectorTest {
 		connector.dispose();
 	}
 
+	@Test
+	public void testSendEcReportAsync() throws URISyntaxException, InvalidURIException, ImplementationException, SQLException {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=epc&async=true&queueSize=2&queuePolicy=block"), new HashMap<String, String>());
+		for (int i = 0; i < 10; i++)
+			connector.send(getReport("epc" + i, new Date(), 1000));
+		connector.dispose();
+
+		Assert.assertEquals(0, connector.getDropped());
+		Assert.assertEquals(0, connector.getFailed());
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT epc FROM test")) {
+			for (int i = 0; i < 10; i++) {
+				Assert.assertTrue(resultSet.next());
+				Assert.assertEquals("epc" + i, resultSet.getString(1));
+			}
+			Assert.assertFalse(resultSet.next());
+		}
+
+		try {
+			connector.init(new URI(uri + "&table=test&epc=epc&async=true&queuePolicy=none"), new HashMap<String, String>());
+			Assert.fail("Exception expected");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'none' is invalid for field 'queuePolicy'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportGroupCommit() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=epc&commitRows=3"), new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 1000));
+		connector.send(getReport("epc2", new Date(), 1000));
+		Assert.assertEquals(0, count());
+		connector.send(getReport("epc3", new Date(), 1000));
+		Assert.assertEquals(3, count());
+		connector.send(getReport("epc4", new Date(), 1000));
+		Assert.assertEquals(3, count());
+		connector.dispose();
+		Assert.assertEquals(4, count());
+
+		connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=epc&commitMillis=50"), new HashMap<String, String>());
+		connector.send(getReport("epc5", new Date(), 1000));
+		for (int i = 0; i < 100 && count() < 5; i++)
+			Thread.sleep(20);
+		Assert.assertEquals(5, count());
+		connector.dispose();
+	}
+
+	private int count() throws SQLException {
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM test")) {
+			resultSet.next();
+			return resultSet.getInt(1);
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithJournal() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI("sql://?connection=jdbc:h2:tcp://localhost:1/mem:test&table=test&epc=epc&date=date&journal=" + directory),
+				new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 1000));
+		connector.send(getReport("epc2", new Date(), 1000));
+		Assert.assertEquals(0, count());
+		Journal journal = getField(connector, "journal");
+		Assert.assertFalse(journal.isEmpty());
+
+		// replay after the backoff time
+		setField(connector, "connectionString", url);
+		CircuitBreaker breaker = getField(connector, "breaker");
+		setField(breaker, "until", Long.valueOf(0));
+		Deencapsulation.invoke(connector, "replay");
+		Assert.assertTrue(journal.isEmpty());
+		Assert.assertEquals(2, count());
+
+		connector.send(getReport("epc3", new Date(), 1000));
+		Assert.assertEquals(3, count());
+		connector.dispose();
+
+		Assert.assertEquals(0, directory.list().length);
+		directory.delete();
+	}
+
+	@Test
+	public void testSendEcReportWithJournalGroup() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=total:INT&commitRows=10&journal=" + directory), new HashMap<String, String>());
+		connector.send(getReport("1", new Date(), 1000));
+		connector.send(getReport("2", new Date(), 1000));
+		try {
+			connector.send(getReport("x", new Date(), 1000));
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+		}
+		// the accepted reports of the rolled back group are journaled
+		Assert.assertEquals(0, count());
+		Journal journal = getField(connector, "journal");
+		Assert.assertFalse(journal.isEmpty());
+		Deencapsulation.invoke(connector, "replay");
+		Assert.assertTrue(journal.isEmpty());
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT total FROM test ORDER BY total")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(1, resultSet.getInt(1));
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(2, resultSet.getInt(1));
+			Assert.assertFalse(resultSet.next());
+		}
+		connector.dispose();
+		directory.delete();
+	}
+
+	@Test
+	public void testSendEcReportWithValues() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=epc&date=date&count=group_count&load=values"), new HashMap<String, String>());
+		ECReports reports = getReport("epc", new Date(), 1000);
+		List<ECReportGroupListMember> members = reports.getReports().getReport().get(0).getGroup().get(0).getGroupList().getMember();
+		members.clear();
+		for (int i = 0; i < 2500; i++)
+			members.add(new ECReportGroupListMember());
+		members.get(2499).setEpc(new EPC("last"));
+		connector.send(reports);
+		connector.dispose();
+
+		Assert.assertEquals(2500, count());
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM test WHERE epc = 'last' AND date IS NOT NULL")) {
+			resultSet.next();
+			Assert.assertEquals(1, resultSet.getInt(1));
+		}
+	}
+
+	@Test
+	public void testSendEcReportBindsReportOnce() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&spec=spec&totalMilliseconds=total&group=group_name&epc=epc&batchSize=2"), new HashMap<String, String>());
+		for (int i = 0; i < 2; i++) {
+			ECReports reports = getReport("epc", new Date(), 1000 + i);
+			reports.setSpecName("spec" + i);
+			ECReport report = reports.getReports().getReport().get(0);
+			report.getGroup().get(0).setGroupName("group1");
+			ECReportGroup group = new ECReportGroup();
+			group.setGroupName("group2");
+			group.setGroupList(new ECReportGroupList());
+			report.getGroup().add(group);
+			for (int j = 0; j < 3; j++) {
+				ECReportGroupListMember member = new ECReportGroupListMember();
+				member.setEpc(new EPC("epc" + j));
+				group.getGroupList().getMember().add(member);
+			}
+			connector.send(reports);
+		}
+		connector.dispose();
+
+		Assert.assertEquals(8, count());
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT spec, total, group_name, COUNT(*) FROM test GROUP BY spec, total, group_name ORDER BY spec, group_name")) {
+			for (int i = 0; i < 2; i++) {
+				for (int j = 1; j <= 2; j++) {
+					Assert.assertTrue(resultSet.next());
+					Assert.assertEquals("spec" + i, resultSet.getString(1));
+					Assert.assertEquals(1000 + i, resultSet.getInt(2));
+					Assert.assertEquals("group" + j, resultSet.getString(3));
+					Assert.assertEquals(j == 1 ? 1 : 3, resultSet.getInt(4));
+				}
+			}
+			Assert.assertFalse(resultSet.next());
+		}
+	}
+
 	@Test
 	public void testSendCcReport() throws URISyntaxException, InvalidURIException, ImplementationException, SQLException {
 		String queryParams = "&table=test&spec=spec&date=date&totalMilliseconds=total&initiationCondition=init_condition&initiationTrigger=init_trigger&terminationCondition=term_condition&terminationTrigger=term_trigger&report=report_name&id=report_id&name=op_name&status=op_status&data=data";
@@ -1932,6 +2330,768 @@ public class SqlSubscriberConnectorTest {
 		connector.marshal(new FileWriter("/tmp/report.csv"), -1, 0);
 	}
 
+	@Test
+	public void testSendEcReportWithBinaryEpc() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=binary_test&epc=epc&rawHex=raw&epcFormat=binary&storage=binary&init=true&drop=true"), new HashMap<String, String>());
+		connector.send(getRawReport("urn:epc:id:sgtin:0614141.812345.6789", "urn:epc:raw:30.x3000ABCD"));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT epc, raw FROM binary_test")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals("urn:epc:id:sgtin:0614141.812345.6789", resultSet.getString(1));
+			Assert.assertArrayEquals(new byte[] { 0x00, 0x1e, 0x30, 0x00, (byte) 0xab, (byte) 0xcd }, resultSet.getBytes(2));
+		}
+		StringWriter writer = new StringWriter();
+		connector.marshal(writer, -1, 0);
+		Assert.assertTrue(writer.toString().contains("urn:epc:raw:30.x3000ABCD"));
+
+		try {
+			connector.send(getRawReport("epc", "raw"));
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+		}
+		// hex values lack the bit length of the raw URN
+		try {
+			connector.send(getRawReport("epc", "3000ABCD"));
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+		}
+		connector.dispose();
+
+		try {
+			connector.init(new URI(uri + "&table=test&epc=epc&epcFormat=hex"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'hex' is invalid for field 'epcFormat'", e.getMessage());
+		}
+
+		try {
+			connector.init(new URI(uri + "&table=test&epc=epc:VARBINARY"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Binary column type is invalid for field 'epc', only field 'rawHex' can be binary", e.getMessage());
+		}
+	}
+
+	private ECReports getRawReport(String epc, String rawHex) {
+		ECReports reports = getReport(epc, new Date(), 1000);
+		reports.getReports().getReport().get(0).getGroup().get(0).getGroupList().getMember().get(0).setRawHex(new EPC(rawHex));
+		return reports;
+	}
+
+	@Test
+	public void testSendEcReportWithTypes() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=typed_test&count=cnt:SMALLINT&date=ts:TIMESTAMP(3)&field=" + URLEncoder.encode("a:INT,b:DECIMAL(10,2),c", "UTF-8")
+				+ "&init=true&drop=true"), new HashMap<String, String>());
+		ECReports reports = getReport("epc", new Date(), 1000);
+		ECReportGroup group = reports.getReports().getReport().get(0).getGroup().get(0);
+		group.setGroupCount(new ECReportGroupCount());
+		group.getGroupCount().setCount(7);
+		ECReportGroupListMember member = group.getGroupList().getMember().get(0);
+		member.setExtension(new ECReportGroupListMemberExtension());
+		member.getExtension().setFieldList(new ECReportGroupListMemberExtension.FieldList());
+		for (String value : new String[] { "42", "4.2", "text" }) {
+			ECReportMemberField field = new ECReportMemberField();
+			field.setValue(value);
+			member.getExtension().getFieldList().getField().add(field);
+		}
+		connector.send(reports);
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT cnt, ts, a, b, c FROM typed_test")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(Types.SMALLINT, resultSet.getMetaData().getColumnType(1));
+			Assert.assertEquals(7, resultSet.getShort(1));
+			Assert.assertEquals(Types.INTEGER, resultSet.getMetaData().getColumnType(3));
+			Assert.assertEquals(42, resultSet.getInt(3));
+			Assert.assertEquals(new BigDecimal("4.20"), resultSet.getBigDecimal(4));
+			Assert.assertEquals("text", resultSet.getString(5));
+		}
+		connector.dispose();
+
+		try {
+			connector.init(new URI(uri + "&table=test&count=cnt:SMALLINT;DROP"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Column type 'SMALLINT;DROP' is invalid for field 'count'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportNormalized() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=member_test&schema=normalized&date=date&report=report&epc=epc&storage=normalized&init=true&drop=true"),
+				new HashMap<String, String>());
+		ECReports reports = getReport("epc1", new Date(), 1000);
+		ECReportGroupListMember member = new ECReportGroupListMember();
+		member.setEpc(new EPC("epc2"));
+		reports.getReports().getReport().get(0).getGroup().get(0).getGroupList().getMember().add(member);
+		connector.send(reports);
+		connector.send(getReport("epc3", new Date(), 1000));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement()) {
+			try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM member_test_header")) {
+				Assert.assertTrue(resultSet.next());
+				Assert.assertEquals(2, resultSet.getInt(1));
+			}
+			try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(DISTINCT header_id), COUNT(*) FROM member_test")) {
+				Assert.assertTrue(resultSet.next());
+				Assert.assertEquals(2, resultSet.getInt(1));
+				Assert.assertEquals(3, resultSet.getInt(2));
+			}
+		}
+		StringWriter writer = new StringWriter();
+		connector.marshal(writer, -1, 0);
+		Assert.assertTrue(writer.toString().contains("epc2"));
+		Assert.assertFalse(writer.toString().contains("header_id"));
+		connector.dispose();
+
+		try {
+			connector.init(new URI(uri + "&table=test&schema=star"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'star' is invalid for field 'schema'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithDedup() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=epc&dedupWindow=60000"), new HashMap<String, String>());
+		Date date = new Date();
+		connector.send(getReport("epc1", date, 1000));
+		connector.send(getReport("epc1", new Date(date.getTime() + 1000), 1000));
+		connector.send(getReport("epc2", new Date(date.getTime() + 1000), 1000));
+		connector.send(getReport("epc1", new Date(date.getTime() + 60000), 1000));
+		Assert.assertEquals(3, count());
+		Assert.assertEquals(1, connector.getDedupHits());
+		Assert.assertEquals(3, connector.getDedupMisses());
+		connector.dispose();
+
+		// the EPCs of a failed write are accepted again
+		connector.init(new URI("sql://?connection=jdbc:h2:tcp://localhost:1/mem:test&table=test&epc=epc&dedupWindow=60000"), new HashMap<String, String>());
+		try {
+			connector.send(getReport("epc3", date, 1000));
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+		}
+		setField(connector, "connectionString", url);
+		CircuitBreaker breaker = getField(connector, "breaker");
+		setField(breaker, "until", Long.valueOf(0));
+		connector.send(getReport("epc3", date, 1000));
+		Assert.assertEquals(4, count());
+		connector.dispose();
+
+		try {
+			connector.init(new URI(uri + "&table=test&epc=epc&dedupSize=0"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value '0' is invalid for field 'dedupSize'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithUpsert() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=upsert_test&mode=upsert&epc=epc&totalMilliseconds=total&init=true&drop=true"), new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 1000));
+		connector.send(getReport("epc2", new Date(), 2000));
+		connector.send(getReport("epc1", new Date(), 3000));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT epc, total FROM upsert_test ORDER BY epc")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals("epc1", resultSet.getString(1));
+			Assert.assertEquals(3000, resultSet.getLong(2));
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals("epc2", resultSet.getString(1));
+			Assert.assertFalse(resultSet.next());
+		}
+		connector.dispose();
+	}
+
+	@Test
+	public void initUpsert() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI("sql://?connection=jdbc%3Apostgresql%3A%2F%2Flocalhost%2Ftest&table=test&epc=epc&date=date&mode=upsert"), new HashMap<String, String>());
+		Assert.assertEquals("INSERT INTO \"test\" (\"epc\",\"date\") VALUES (?,?) ON CONFLICT (\"epc\") DO UPDATE SET \"date\" = EXCLUDED.\"date\"",
+				getField(connector, "TEXT"));
+
+		connector.init(new URI("sql://?connection=jdbc%3Amysql%3A%2F%2Flocalhost%2Ftest&table=test&epc=epc&date=date&mode=upsert"), new HashMap<String, String>());
+		Assert.assertEquals("INSERT INTO `test` (`epc`,`date`) VALUES (?,?) ON DUPLICATE KEY UPDATE `date` = VALUES(`date`)", getField(connector, "TEXT"));
+
+		connector.init(new URI("sql://?connection=jdbc%3Asqlserver%3A%2F%2Flocalhost&table=test&epc=epc&date=date&mode=upsert"), new HashMap<String, String>());
+		Assert.assertEquals("MERGE INTO [test] d USING (VALUES (?,?)) s ([epc],[date]) ON d.[epc] = s.[epc] WHEN MATCHED THEN UPDATE SET d.[date] = s.[date]"
+				+ " WHEN NOT MATCHED THEN INSERT ([epc],[date]) VALUES (s.[epc],s.[date]);", getField(connector, "TEXT"));
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&date=date&mode=upsert"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'upsert' of field 'mode' requires the 'epc' column", e.getMessage());
+		}
+
+		try {
+			connector.init(new URI(uri + "&table=test&epc=epc&mode=replace"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'replace' is invalid for field 'mode'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithRollup() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=rollup_test&mode=rollup&epc=epc&rollupMillis=3600000&init=true&drop=true"), new HashMap<String, String>());
+		Date date = new Date();
+		connector.send(getReport("epc1", date, 1000));
+		connector.send(getReport("epc1", new Date(date.getTime() + 1000), 1000));
+		connector.send(getReport("epc2", new Date(date.getTime() + 1000), 1000));
+		Deencapsulation.invoke(connector, "flushRollup");
+		connector.send(getReport("epc1", new Date(date.getTime() + 2000), 1000));
+		Deencapsulation.invoke(connector, "flushRollup");
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT epc, first_seen, last_seen, read_count FROM rollup_test ORDER BY epc")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals("epc1", resultSet.getString(1));
+			Assert.assertEquals(date.getTime(), resultSet.getTimestamp(2).getTime());
+			Assert.assertEquals(date.getTime() + 2000, resultSet.getTimestamp(3).getTime());
+			Assert.assertEquals(3, resultSet.getLong(4));
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals("epc2", resultSet.getString(1));
+			Assert.assertEquals(1, resultSet.getLong(4));
+			Assert.assertFalse(resultSet.next());
+		}
+		connector.dispose();
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&epc=epc&date=date&mode=rollup"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'rollup' of field 'mode' only supports the 'epc' column", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithRollupNoInfo() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=rollup_test&mode=rollup&epc=epc&rollupMillis=3600000&init=true&drop=true"), new HashMap<String, String>());
+		Date date = new Date();
+		connector.send(getReport("epc1", date, 1000));
+		Deencapsulation.invoke(connector, "flushRollup");
+		// driver which doesn't report the update counts of a batch
+		new MockUp<JdbcPreparedStatement>() {
+			@Mock
+			int[] executeBatch(Invocation invocation) {
+				int[] counts = invocation.proceed();
+				Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+				return counts;
+			}
+		};
+		connector.send(getReport("epc1", new Date(date.getTime() + 1000), 1000));
+		connector.send(getReport("epc2", new Date(date.getTime() + 1000), 1000));
+		Deencapsulation.invoke(connector, "flushRollup");
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT epc, read_count FROM rollup_test ORDER BY epc")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals("epc1", resultSet.getString(1));
+			Assert.assertEquals(2, resultSet.getLong(2));
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals("epc2", resultSet.getString(1));
+			Assert.assertEquals(1, resultSet.getLong(2));
+			Assert.assertFalse(resultSet.next());
+		}
+		connector.dispose();
+	}
+
+	@Test
+	public void testSendEcReportWithFieldNames() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=field_test&field=" + URLEncoder.encode("a:INT=count,b=user,c", "UTF-8") + "&init=true&drop=true"),
+				new HashMap<String, String>());
+		ECReports reports = getReport("epc", new Date(), 1000);
+		ECReportGroupListMember member = reports.getReports().getReport().get(0).getGroup().get(0).getGroupList().getMember().get(0);
+		member.setExtension(new ECReportGroupListMemberExtension());
+		member.getExtension().setFieldList(new ECReportGroupListMemberExtension.FieldList());
+		for (String[] pair : new String[][] { { "user", "text" }, { "other", "ignored" }, { "position", "third" }, { "count", "42" } }) {
+			ECReportMemberField field = new ECReportMemberField();
+			field.setName(pair[0]);
+			field.setValue(pair[1]);
+			member.getExtension().getFieldList().getField().add(field);
+		}
+		connector.send(reports);
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT a, b, c FROM field_test")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(42, resultSet.getInt(1));
+			Assert.assertEquals("text", resultSet.getString(2));
+			Assert.assertEquals("third", resultSet.getString(3));
+		}
+		connector.dispose();
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&field=a=name,b=name"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'b=name' is invalid for field 'field'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithGranularity() throws Exception {
+		ECReports reports = getReport("epc1", new Date(), 1000);
+		ECReport report = reports.getReports().getReport().get(0);
+		ECReportGroupListMember member = new ECReportGroupListMember();
+		member.setEpc(new EPC("epc2"));
+		report.getGroup().get(0).getGroupList().getMember().add(member);
+		ECReportGroup group = new ECReportGroup();
+		group.setGroupName("other");
+		group.setGroupList(new ECReportGroupList());
+		report.getGroup().add(group);
+
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&date=date&totalMilliseconds=total"), new HashMap<String, String>());
+		connector.send(reports);
+		Assert.assertEquals(1, count());
+		connector.dispose();
+
+		connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&date=date&group=group_name&rows=group"), new HashMap<String, String>());
+		connector.send(reports);
+		Assert.assertEquals(3, count());
+		connector.dispose();
+
+		connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&date=date&rows=member"), new HashMap<String, String>());
+		connector.send(reports);
+		Assert.assertEquals(5, count());
+		connector.dispose();
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&epc=epc&rows=group"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'group' of field 'rows' doesn't support the mapped member columns", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithPlainStream() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&plain=plain&plainStream=true"), new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 1000));
+		connector.send(getReport("epc2", new Date(), 2000));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT plain FROM test")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertTrue(resultSet.getString(1).contains("1000"));
+			Assert.assertTrue(resultSet.next());
+			Assert.assertTrue(resultSet.getString(1).contains("2000"));
+			Assert.assertFalse(resultSet.getString(1).contains("1000"));
+		}
+		connector.dispose();
+	}
+
+	@Test
+	public void testSendEcReportWithPlainCompression() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=compressed_test&epc=epc&plain=plain&plainCompression=gzip&storage=compressed&init=true&drop=true"),
+				new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 4711));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT plain FROM compressed_test WHERE plain IS NOT NULL")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertTrue(Compressor.decompress(resultSet.getBytes(1)).contains("4711"));
+		}
+		StringWriter writer = new StringWriter();
+		connector.marshal(writer, -1, 0);
+		Assert.assertTrue(writer.toString().contains("4711"));
+		connector.dispose();
+
+		connector.init(new URI(uri + "&table=compressed_test&epc=epc&plain=plain&plainCompression=deflate&plainExport=base64&storage=compressed&init=true&drop=true"),
+				new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 4711));
+		writer = new StringWriter();
+		connector.marshal(writer, -1, 0);
+		Assert.assertFalse(writer.toString().contains("4711"));
+		Assert.assertTrue(writer.toString().contains(",eJ"));
+		connector.dispose();
+
+		try {
+			connector.init(new URI(uri + "&table=test&plain=plain&plainCompression=zip"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'zip' is invalid for field 'plainCompression'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithPlainFormat() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&plain=plain&plainFormat=json"), new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 4711));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT plain FROM test")) {
+			Assert.assertTrue(resultSet.next());
+			String json = resultSet.getString(1);
+			Assert.assertTrue(json.startsWith("[\"ECReports\","));
+			Assert.assertTrue(json.contains("\"4711\""));
+			Assert.assertTrue(json.endsWith("]"));
+		}
+		connector.dispose();
+
+		connector.init(new URI(uri + "&table=encoded_test&epc=epc&plain=plain&plainFormat=fastinfoset&storage=encoded&init=true&drop=true"),
+				new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 4711));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT plain FROM encoded_test WHERE plain IS NOT NULL")) {
+			Assert.assertTrue(resultSet.next());
+			byte[] bytes = resultSet.getBytes(1);
+			// Fast Infoset document identifier
+			Assert.assertEquals((byte) 0xe0, bytes[0]);
+			Assert.assertTrue(FastInfosetEncoder.decode(bytes).contains("4711"));
+		}
+		StringWriter writer = new StringWriter();
+		connector.marshal(writer, -1, 0);
+		Assert.assertTrue(writer.toString().contains("4711"));
+		connector.dispose();
+
+		try {
+			connector.init(new URI(uri + "&table=test&plain=plain&plainFormat=yaml"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'yaml' is invalid for field 'plainFormat'", e.getMessage());
+		}
+		try {
+			connector.init(new URI(uri + "&table=test&plain=plain&plainFormat=fastinfoset&plainCompression=gzip"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Value 'fastinfoset' of field 'plainFormat' can't be compressed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithPayloadTable() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=slim_test&plain=plain&payloadTable=payload_test&init=true&drop=true"),
+				new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(1000), 4711));
+		connector.send(getReport("epc1", new Date(2000), 815));
+		ECReports other = getReport("epc1", new Date(3000), 4711);
+		other.setSpecName("other");
+		connector.send(other);
+		try (Statement statement = database.createStatement()) {
+			try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*), COUNT(DISTINCT plain) FROM slim_test")) {
+				Assert.assertTrue(resultSet.next());
+				Assert.assertEquals(3, resultSet.getInt(1));
+				Assert.assertEquals(2, resultSet.getInt(2));
+			}
+			try (ResultSet resultSet = statement.executeQuery("SELECT p.plain, COUNT(*) FROM slim_test s JOIN payload_test p ON s.plain = p.hash GROUP BY p.plain ORDER BY 2")) {
+				Assert.assertTrue(resultSet.next());
+				Assert.assertTrue(resultSet.getString(1).contains("other"));
+				Assert.assertFalse(resultSet.getString(1).contains("date"));
+				Assert.assertFalse(resultSet.getString(1).contains("4711"));
+				Assert.assertEquals(1, resultSet.getInt(2));
+				Assert.assertTrue(resultSet.next());
+				Assert.assertFalse(resultSet.getString(1).contains("other"));
+				Assert.assertEquals(2, resultSet.getInt(2));
+			}
+			// the cycle is stored with the reference to the payload
+			try (ResultSet resultSet = statement.executeQuery("SELECT report_date, total_milliseconds FROM slim_test ORDER BY report_date")) {
+				Assert.assertTrue(resultSet.next());
+				Assert.assertEquals(1000, resultSet.getTimestamp(1).getTime());
+				Assert.assertEquals(4711, resultSet.getLong(2));
+				Assert.assertTrue(resultSet.next());
+				Assert.assertEquals(2000, resultSet.getTimestamp(1).getTime());
+				Assert.assertEquals(815, resultSet.getLong(2));
+			}
+		}
+		Payloads payloads = Deencapsulation.getField(connector, "payloads");
+		Assert.assertEquals(2, payloads.size());
+
+		// known payloads are found in the table if not cached
+		payloads.clear();
+		connector.send(getReport("epc1", new Date(4000), 4711));
+		try (Statement statement = database.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM payload_test")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(2, resultSet.getInt(1));
+		}
+
+		// a payload inserted concurrently after the lookup is kept
+		payloads.clear();
+		setField(connector, "FIND", "SELECT 1 FROM payload_test WHERE 1 = 0 AND hash = ?");
+		connector.send(getReport("epc1", new Date(5000), 4711));
+		try (Statement statement = database.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM payload_test")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(2, resultSet.getInt(1));
+		}
+		connector.dispose();
+
+		connector.init(new URI(uri + "&table=slim_test&plain=plain&plainCompression=gzip&payloadTable=payload_test&init=true&drop=true"),
+				new HashMap<String, String>());
+		connector.send(other);
+		try (Statement statement = database.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT p.plain FROM slim_test s JOIN payload_test p ON s.plain = p.hash")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertTrue(Compressor.decompress(resultSet.getBytes(1)).contains("other"));
+		}
+		connector.dispose();
+
+		// the cycle is journaled with the reference
+		File directory = Files.createTempDirectory("journal").toFile();
+		try (Statement statement = database.createStatement()) {
+			statement.execute("CREATE TABLE slim_test (plain VARCHAR(64), report_date TIMESTAMP, total_milliseconds BIGINT, initiation_condition TEXT, "
+					+ "initiation_trigger TEXT, termination_condition TEXT, termination_trigger TEXT)");
+			statement.execute("CREATE TABLE payload_test (hash VARCHAR(64) PRIMARY KEY, plain TEXT)");
+		}
+		connector = new SqlSubscriberConnector();
+		connector.init(new URI("sql://?connection=jdbc:h2:tcp://localhost:1/mem:test&table=slim_test&plain=plain&payloadTable=payload_test&journal="
+				+ directory), new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(6000), 42));
+		setField(connector, "connectionString", url);
+		CircuitBreaker breaker = getField(connector, "breaker");
+		setField(breaker, "until", Long.valueOf(0));
+		Deencapsulation.invoke(connector, "replay");
+		try (Statement statement = database.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT s.report_date, s.total_milliseconds, p.plain FROM slim_test s JOIN payload_test p ON s.plain = p.hash")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(6000, resultSet.getTimestamp(1).getTime());
+			Assert.assertEquals(42, resultSet.getLong(2));
+		}
+		connector.dispose();
+		directory.delete();
+
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&epc=epc&payloadTable=payload_test"), new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Field 'payloadTable' requires the 'plain' column", e.getMessage());
+		}
+		try {
+			new SqlSubscriberConnector().init(new URI(uri + "&table=test&plain=plain&date=report_date&payloadTable=payload_test"),
+					new HashMap<String, String>());
+			Assert.fail("Expected InvalidURIException");
+		} catch (InvalidURIException e) {
+			Assert.assertEquals("Column name 'report_date' is reserved for field 'payloadTable'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSendEcReportWithPoolFailure() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=total:INT&batchSize=10&poolSize=1"), new HashMap<String, String>());
+		ECReports reports = getReport("1", new Date(), 1000);
+		List<ECReportGroupListMember> members = reports.getReports().getReport().get(0).getGroup().get(0).getGroupList().getMember();
+		for (String epc : new String[] { "2", "x" }) {
+			ECReportGroupListMember member = new ECReportGroupListMember();
+			member.setEpc(new EPC(epc));
+			members.add(member);
+		}
+		try {
+			connector.send(reports);
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+		}
+		// the batch rows of the failed report are not written with the next
+		connector.send(getReport("5", new Date(), 1000));
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT total FROM test")) {
+			Assert.assertTrue(resultSet.next());
+			Assert.assertEquals(5, resultSet.getInt(1));
+			Assert.assertFalse(resultSet.next());
+		}
+		connector.dispose();
+	}
+
+	@Test
+	public void testSendEcReportWithPool() throws Exception {
+		SqlSubscriberConnector first = new SqlSubscriberConnector();
+		first.init(new URI(uri + "&table=test&epc=epc&poolSize=1&storage=pooled"), new HashMap<String, String>());
+		SqlSubscriberConnector second = new SqlSubscriberConnector();
+		second.init(new URI(uri + "&table=test&epc=epc&poolSize=1"), new HashMap<String, String>());
+		first.send(getReport("epc1", new Date(), 1000));
+		second.send(getReport("epc2", new Date(), 1000));
+		first.send(getReport("epc3", new Date(), 1000));
+		Assert.assertEquals(3, count());
+
+		ConnectionPool pool = Deencapsulation.getField(first, "pool");
+		Assert.assertSame(pool, Deencapsulation.getField(second, "pool"));
+		Assert.assertEquals(1, pool.size());
+		Assert.assertEquals(1, pool.idle());
+		Assert.assertNull(Deencapsulation.getField(first, "connection"));
+
+		StringWriter writer = new StringWriter();
+		first.marshal(writer, -1, 0);
+		Assert.assertTrue(writer.toString().contains("epc2"));
+		Assert.assertEquals(1, pool.size());
+
+		// a broken idle connection is replaced on borrow
+		ConnectionPool.Pooled pooled = pool.borrow();
+		pooled.connection.close();
+		pool.release(pooled);
+		second.send(getReport("epc4", new Date(), 1000));
+		Assert.assertEquals(4, count());
+		Assert.assertEquals(1, pool.size());
+
+		first.dispose();
+		second.dispose();
+		Assert.assertEquals(1, pool.idle());
+	}
+
+	@Test
+	public void testSendEcReportWithCircuitBreaker() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI("sql://?connection=jdbc:h2:tcp://localhost:1/mem:test&table=test&epc=epc&breakerFailures=2&backoffMillis=60000"),
+				new HashMap<String, String>());
+		CircuitBreaker breaker = getField(connector, "breaker");
+		for (int i = 0; i < 2; i++) {
+			try {
+				connector.send(getReport("epc1", new Date(), 1000));
+				Assert.fail("Expected ImplementationException");
+			} catch (ImplementationException e) {
+				Assert.assertTrue(e.getCause() instanceof SQLException);
+			}
+			// each failure rejects writes for the backoff time
+			Assert.assertTrue(breaker.remaining(System.currentTimeMillis()) > 0);
+			if (i == 0) {
+				Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+				setField(breaker, "until", Long.valueOf(0));
+			}
+		}
+		// fails fast without connecting
+		setField(connector, "connectionString", url);
+		try {
+			connector.send(getReport("epc1", new Date(), 1000));
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Database is unavailable, retrying in "));
+		}
+		Assert.assertEquals(0, count());
+
+		// trial after the backoff time
+		setField(breaker, "until", Long.valueOf(0));
+		connector.send(getReport("epc1", new Date(), 1000));
+		Assert.assertEquals(1, count());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		connector.dispose();
+	}
+
+	@Test
+	public void testSendEcReportWithFatalFailure() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&plain=plain&epc=total:INT"), new HashMap<String, String>());
+		try {
+			connector.send(getReport("epc1", new Date(), 1000));
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+			Assert.assertFalse(SqlSubscriberConnector.isTransient(e.getCause()));
+		}
+		// the connection is kept, the rows of the failed write are rolled back
+		Connection connection = getField(connector, "connection");
+		Assert.assertNotNull(connection);
+		connector.send(getReport("1", new Date(), 1000));
+		Assert.assertSame(connection, getField(connector, "connection"));
+		Assert.assertEquals(2, count());
+		connector.dispose();
+	}
+
+	@Test
+	public void testSendEcReportWithRollback() throws Exception {
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=epc"), new HashMap<String, String>());
+		connector.send(getReport("epc1", new Date(), 1000));
+		Connection connection = getField(connector, "connection");
+		final int[] failures = new int[] { 1 };
+		new MockUp<JdbcPreparedStatement>() {
+			@Mock
+			boolean execute(Invocation invocation) throws SQLException {
+				if (failures[0]-- > 0)
+					throw new SQLTransactionRollbackException("Deadlock", "40001");
+				return invocation.<Boolean> proceed().booleanValue();
+			}
+		};
+		// the rolled back transaction is retried on the same connection
+		connector.send(getReport("epc2", new Date(), 1000));
+		Assert.assertEquals(2, count());
+		Assert.assertSame(connection, getField(connector, "connection"));
+
+		// retries are limited, the breaker stays closed
+		failures[0] = 3;
+		try {
+			connector.send(getReport("epc3", new Date(), 1000));
+			Assert.fail("Expected ImplementationException");
+		} catch (ImplementationException e) {
+			Assert.assertTrue(e.getCause() instanceof SQLTransactionRollbackException);
+		}
+		Assert.assertSame(connection, getField(connector, "connection"));
+		CircuitBreaker breaker = getField(connector, "breaker");
+		Assert.assertEquals(0, breaker.remaining(System.currentTimeMillis()));
+		connector.send(getReport("epc3", new Date(), 1000));
+		Assert.assertEquals(3, count());
+		connector.dispose();
+	}
+
+	@Test
+	public void testSendEcReportWithRollbackTrial() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		SqlSubscriberConnector connector = new SqlSubscriberConnector();
+		connector.init(new URI(uri + "&table=test&epc=epc&journal=" + directory), new HashMap<String, String>());
+		CircuitBreaker breaker = getField(connector, "breaker");
+		final int[] failures = new int[] { 0 };
+		new MockUp<JdbcPreparedStatement>() {
+			@Mock
+			boolean execute(Invocation invocation) throws SQLException {
+				if (failures[0]-- > 0)
+					throw new SQLTransactionRollbackException("Deadlock", "40001");
+				return invocation.<Boolean> proceed().booleanValue();
+			}
+
+			@Mock
+			int[] executeBatch(Invocation invocation) throws SQLException {
+				if (failures[0]-- > 0)
+					throw new SQLTransactionRollbackException("Deadlock", "40001");
+				return invocation.proceed();
+			}
+		};
+
+		// the rolled back trial is retried and closes the breaker
+		setField(breaker, "state", CircuitBreaker.State.OPEN);
+		failures[0] = 1;
+		connector.send(getReport("epc1", new Date(), 1000));
+		Assert.assertEquals(1, count());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		// the same applies to the trial replaying the journal
+		setField(breaker, "state", CircuitBreaker.State.OPEN);
+		setField(breaker, "until", Long.valueOf(Long.MAX_VALUE));
+		connector.send(getReport("epc2", new Date(), 1000));
+		Journal journal = getField(connector, "journal");
+		Assert.assertFalse(journal.isEmpty());
+		setField(breaker, "until", Long.valueOf(0));
+		failures[0] = 1;
+		Deencapsulation.invoke(connector, "replay");
+		Assert.assertTrue(journal.isEmpty());
+		Assert.assertEquals(2, count());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		connector.dispose();
+		directory.delete();
+	}
+
+	@Test
+	public void isTransient() {
+		Assert.assertTrue(SqlSubscriberConnector.isTransient(new SQLException("Connection refused", "08001")));
+		Assert.assertFalse(SqlSubscriberConnector.isTransient(new SQLException("Deadlock", "40P01")));
+		Assert.assertFalse(SqlSubscriberConnector.isTransient(new SQLTransactionRollbackException()));
+		Assert.assertTrue(SqlSubscriberConnector.isRollback(new Exception(new SQLException("Deadlock", "40P01"))));
+		Assert.assertTrue(SqlSubscriberConnector.isRollback(new SQLTransactionRollbackException()));
+		Assert.assertFalse(SqlSubscriberConnector.isRollback(new SQLException("Connection refused", "08001")));
+		Assert.assertTrue(SqlSubscriberConnector.isTransient(new Exception(new SQLException("Timeout", "HYT00"))));
+		Assert.assertTrue(SqlSubscriberConnector.isTransient(new SQLTransientConnectionException()));
+		Assert.assertFalse(SqlSubscriberConnector.isTransient(new SQLException("Unique violation", "23505")));
+		Assert.assertFalse(SqlSubscriberConnector.isTransient(new SQLException("No state")));
+		Assert.assertFalse(SqlSubscriberConnector.isTransient(new RuntimeException()));
+	}
+
 	// @Test
 	public void testMsSql(@Mocked final Connection connection, @Mocked final DriverManager manager)
 			throws SQLException, UnsupportedEncodingException, InvalidURIException, ImplementationException, URISyntaxException {
@@ -5,6 +5,6 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ ActivatorTest.class, SqlSubscriberConnectorTest.class })
+@SuiteClasses({ ActivatorTest.class, AsyncWriterTest.class, BinderTest.class, BulkLoaderTest.class, ChunkWriterTest.class, CircuitBreakerTest.class, CompressorTest.class, ConnectionPoolTest.class, CopyLoaderTest.class, DeduplicatorTest.class, HexTest.class, JournalTest.class, JsonStreamWriterTest.class, MarshallersTest.class, PayloadsTest.class, RollupTest.class, SqlSubscriberConnectorTest.class })
 public class TestSuite {
 }
\ No newline at end of file